@@ -0,0 +1,87 @@
+package bench;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import toolkit.Matrix;
+
+/**
+ * Datasets for the benchmarks. A dataset is named after its file in
+ * datasets/ and scaled by a whole factor: the data section is written
+ * scale times into a temporary ARFF file, so a scaled dataset has the same
+ * relation and distribution with scale times the rows. Every trial gets its
+ * own file, which keeps the binary sidecars out of datasets/.
+ */
+final class BenchData {
+	private BenchData() {}
+
+	// Returns the datasets directory, looking in the working directory and its parent
+	static File datasetsDir() throws IOException {
+		for (String path : new String[] { "datasets", "../datasets" }) {
+			File dir = new File(path);
+			if (dir.isDirectory())
+				return dir;
+		}
+		throw new IOException("Cannot find the datasets directory; run from the repository root or bench/");
+	}
+
+	// Writes datasets/<dataset>.arff with its data section repeated scale times to a temporary file
+	static File scaledArff(String dataset, int scale) throws IOException {
+		if (scale < 1)
+			throw new IOException("The scale factor must be at least 1");
+		File source = new File(datasetsDir(), dataset + ".arff");
+		File dir = File.createTempFile("bench-" + dataset + "-x" + scale + "-", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Could not create " + dir);
+		dir.deleteOnExit();
+		File target = new File(dir, dataset + ".arff");
+		target.deleteOnExit();
+		new File(target.getPath() + ".bin").deleteOnExit();
+
+		ArrayList<String> rows = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(source));
+		BufferedWriter out = new BufferedWriter(new FileWriter(target));
+		try {
+			boolean inData = false;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String trimmed = line.trim();
+				if (inData) {
+					if (!trimmed.isEmpty() && !trimmed.startsWith("%"))
+						rows.add(line);
+					continue;
+				}
+				out.write(line);
+				out.newLine();
+				if (trimmed.toUpperCase().startsWith("@DATA"))
+					inData = true;
+			}
+			for (int i = 0; i < scale; i++) {
+				for (String row : rows) {
+					out.write(row);
+					out.newLine();
+				}
+			}
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		return target;
+	}
+
+	// Loads a scaled copy of the dataset from its text
+	static Matrix load(String dataset, int scale) throws Exception {
+		Matrix data = new Matrix();
+		data.loadArff(scaledArff(dataset, scale).getPath(), false);
+		return data;
+	}
+}
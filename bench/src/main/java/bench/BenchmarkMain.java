@@ -0,0 +1,26 @@
+package bench;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs the JMH command line with the results written as JSON to
+ * jmh-result.json, unless -rf or -rff is given. Keeping the JSON files of
+ * two versions lets them be compared for regressions.
+ */
+public final class BenchmarkMain {
+	private BenchmarkMain() {}
+
+	public static void main(String[] args) throws Exception {
+		ArrayList<String> options = new ArrayList<String>(Arrays.asList(args));
+		if (!options.contains("-rf"))
+			options.addAll(Arrays.asList("-rf", "json"));
+		if (!options.contains("-rff"))
+			options.addAll(Arrays.asList("-rff", "jmh-result.json"));
+		org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+	}
+}
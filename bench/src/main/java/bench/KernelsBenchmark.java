@@ -0,0 +1,101 @@
+package bench;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import toolkit.Kernels;
+
+/**
+ * The unrolled loops of toolkit.Kernels against the plain left-to-right
+ * loops they replaced, for vectors of each length. Every other column is
+ * nominal in the mixed distances, and the nominal cells hold small whole
+ * numbers, so about half of them match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KernelsBenchmark {
+	@Param({ "4", "16", "64", "256", "1024" })
+	public int length;
+
+	private double[] m_a;
+	private double[] m_b;
+	private boolean[] m_nominal;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(0);
+		m_a = new double[length];
+		m_b = new double[length];
+		m_nominal = new boolean[length];
+		for (int i = 0; i < length; i++) {
+			m_nominal[i] = i % 2 == 1;
+			m_a[i] = m_nominal[i] ? rand.nextInt(2) : rand.nextDouble();
+			m_b[i] = m_nominal[i] ? rand.nextInt(2) : rand.nextDouble();
+		}
+	}
+
+	@Benchmark
+	public double dot() {
+		return Kernels.dot(m_a, m_b, length);
+	}
+
+	@Benchmark
+	public double dotScalar() {
+		double sum = 0;
+		for (int i = 0; i < length; i++)
+			sum += m_a[i] * m_b[i];
+		return sum;
+	}
+
+	@Benchmark
+	public double squaredDistance() {
+		return Kernels.squaredDistance(m_a, m_b, length);
+	}
+
+	@Benchmark
+	public double squaredDistanceScalar() {
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			double d = m_a[i] - m_b[i];
+			sum += d * d;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double mixedSquaredDistance() {
+		return Kernels.mixedSquaredDistance(m_a, m_b, m_nominal, length);
+	}
+
+	@Benchmark
+	public double mixedSquaredDistanceScalar() {
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			double d = m_a[i] - m_b[i];
+			if (m_nominal[i])
+				d = d != 0 ? 1 : 0;
+			sum += d * d;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,115 @@
+package bench;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import toolkit.MLSystemManager;
+import toolkit.Matrix;
+import toolkit.SupervisedLearner;
+
+/**
+ * Training and prediction for each learner, created by name the same way
+ * MLSystemManager does. The features are normalized and the last column is
+ * the label. A training run is a whole call to train with a fixed seed, so
+ * it is timed once per iteration; the prediction benchmarks score every row
+ * with a model trained during setup, through predict one row at a time,
+ * through predictScores, and through the batched measureAccuracy. The
+ * default datasets have a two-valued label, which the perceptron needs.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class LearnerBenchmark {
+	static final long SEED = 1;
+	static final int CLUSTERS = 3;
+
+	@Param({ "perceptron", "neuralnet", "decisiontree", "knn", "clustering" })
+	public String learner;
+
+	@Param({ "voting", "credit" })
+	public String dataset;
+
+	@Param({ "1", "4" })
+	public int scale;
+
+	private Matrix m_features;
+	private Matrix m_labels;
+	private SupervisedLearner m_trained;
+
+	@Setup
+	public void setup() throws Exception {
+		Matrix data = BenchData.load(dataset, scale);
+		m_features = new Matrix(data, 0, 0, data.rows(), data.cols() - 1);
+		m_labels = new Matrix(data, 0, data.cols() - 1, data.rows(), 1);
+		m_features.normalize();
+		m_trained = train();
+	}
+
+	private SupervisedLearner train() throws Exception {
+		SupervisedLearner model = new MLSystemManager().getLearner(learner, new Random(SEED), CLUSTERS);
+		model.train(m_features, m_labels);
+		return model;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 10)
+	public SupervisedLearner trainModel() throws Exception {
+		return train();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public void predict(Blackhole bh) throws Exception {
+		double[] row = new double[m_features.cols()];
+		double[] prediction = new double[1];
+		for (int i = 0; i < m_features.rows(); i++) {
+			m_trained.predict(m_features.copyRow(i, row), prediction);
+			bh.consume(prediction[0]);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public void predictScores(Blackhole bh) throws Exception {
+		double[] row = new double[m_features.cols()];
+		double[] scores = new double[Math.max(1, m_labels.valueCount(0))];
+		for (int i = 0; i < m_features.rows(); i++) {
+			m_trained.predictScores(m_features.copyRow(i, row), scores);
+			bh.consume(scores);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public double measureAccuracy() throws Exception {
+		return m_trained.measureAccuracy(m_features, m_labels, null);
+	}
+}
@@ -0,0 +1,110 @@
+package bench;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import toolkit.Matrix;
+
+/**
+ * The data layer: parsing an ARFF file (and mapping its binary sidecar),
+ * normalizing, shuffling, and taking sub-matrices as views and as copies.
+ * normalize and shuffle work on a private copy of the features that stays
+ * the same size, so every call does the same amount of work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MatrixBenchmark {
+	@Param({ "iris", "voting", "cars", "mt_train" })
+	public String dataset;
+
+	@Param({ "1", "8" })
+	public int scale;
+
+	private String m_filename;
+	private Matrix m_data;
+	private Matrix m_features;
+	private Matrix m_labels;
+	private int[] m_half;
+	private Random m_rand;
+
+	@Setup
+	public void setup() throws Exception {
+		File file = BenchData.scaledArff(dataset, scale);
+		m_filename = file.getPath();
+		m_data = new Matrix();
+		m_data.loadArff(m_filename, true); // writes the sidecar for loadArffCached
+		m_features = new Matrix(m_data, 0, 0, m_data.rows(), m_data.cols() - 1);
+		m_labels = new Matrix(m_data, 0, m_data.cols() - 1, m_data.rows(), 1);
+		m_features.normalize(); // takes the private copies
+		m_features.shuffle(new Random(0), m_labels);
+		m_rand = new Random(0);
+		m_half = new int[m_data.rows() / 2];
+		for (int i = 0; i < m_half.length; i++)
+			m_half[i] = 2 * i;
+	}
+
+	@Benchmark
+	public Matrix loadArffText() throws Exception {
+		Matrix m = new Matrix();
+		m.loadArff(m_filename, false);
+		return m;
+	}
+
+	@Benchmark
+	public Matrix loadArffCached() throws Exception {
+		Matrix m = new Matrix();
+		m.loadArff(m_filename, true);
+		return m;
+	}
+
+	@Benchmark
+	public Matrix normalize() {
+		m_features.normalize();
+		return m_features;
+	}
+
+	@Benchmark
+	public Matrix shuffle() {
+		m_features.shuffle(m_rand, m_labels);
+		return m_features;
+	}
+
+	// Reads every other row through a row-index view
+	@Benchmark
+	public void viewRows(Blackhole bh) {
+		Matrix view = new Matrix(m_data, m_half.clone(), 0, m_data.cols() - 1);
+		double[] row = new double[view.cols()];
+		for (int i = 0; i < view.rows(); i++)
+			bh.consume(view.copyRow(i, row));
+	}
+
+	// Copies the first half of the rows into a new matrix
+	@Benchmark
+	public Matrix copyRows() throws Exception {
+		Matrix copy = new Matrix(m_data, new int[0], 0, m_data.cols());
+		copy.add(m_data, 0, 0, m_data.rows() / 2);
+		return copy;
+	}
+}
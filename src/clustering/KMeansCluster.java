@@ -1,27 +1,66 @@
 package clustering;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
+import toolkit.IncrementalLearner;
+import toolkit.Kernels;
+import toolkit.LearnerConfig;
 import toolkit.Matrix;
+import toolkit.ModelIO;
 import toolkit.SupervisedLearner;
+import toolkit.TrainingListener;
 
-public class KMeansCluster extends SupervisedLearner {
+public class KMeansCluster extends SupervisedLearner implements IncrementalLearner {
 	private final static double MISSING = Double.MAX_VALUE;
+	// Written where older model files begin with the number of clusters, which they
+	// assumed was also the number of centroids
+	private final static int CENTROID_COUNT = -1;
 	private int numClusters;
+	private Random rand;
 	private ArrayList<ArrayList<Double>> centroids;
 	private ArrayList<ArrayList<Integer>> clusterLists;
 	private Matrix features;
 	private Matrix labels;
+	private boolean complete; // true if no cell is missing, so distances skip the MISSING checks
+	private boolean[] nominal;
+	private int[][] clusterLabelCounts; // [cluster][label] training labels in each final cluster
+	// State of the online updates made by partialFit
+	private int[] clusterSizes;
+	private int[][][] nominalCounts; // [cluster][column][value], null for continuous columns
 	
 	public KMeansCluster(int k) {
+		this(k, new Random());
+	}
+	
+	public KMeansCluster(int k, Random rand) {
 		numClusters = k;
+		this.rand = rand;
+	}
+	
+	@Override
+	public LearnerConfig getConfig() {
+		return new LearnerConfig().set("k", numClusters);
+	}
+	
+	@Override
+	public void configure(LearnerConfig config) throws Exception {
+		super.configure(config);
+		numClusters = config.getInt("k", numClusters);
 	}
 	
 	@Override
 	public void train(Matrix features, Matrix labels) throws Exception {
 		this.features = features;
 		this.labels = labels;
+		this.clusterSizes = null;
+		this.complete = !features.isSparse() && !features.hasMissing();
+		this.nominal = new boolean[features.cols()];
+		for (int i = 0; i < this.nominal.length; i++)
+			this.nominal[i] = features.valueCount(i) != 0;
 		
 		centroids = new ArrayList<ArrayList<Double>>(numClusters);
 		clusterLists = new ArrayList<ArrayList<Integer>>(numClusters);
@@ -44,31 +83,43 @@ public class KMeansCluster extends SupervisedLearner {
 					System.out.print(features.get(i, j) + " ");
 			}
 		}*/
+		TrainingListener listener = this.getTrainingListener();
 		this.centroids = this.getRandomCentroids();
-		System.out.println();
+		listener.message(() -> this.centroidsToString("Initial centroid "));
 				
+		double[] instance = new double[features.cols()];
+		int[] assignments = new int[features.rows()];
+		Arrays.fill(assignments, -1);
+		int iteration = 0;
+		long assignNanos = 0;
+		long updateNanos = 0;
 		boolean centroidHasChanged = true;	
 		while(centroidHasChanged) {
-			System.out.println("************************************");
-			for (int i = 0; i < features.rows(); i++) {
+			iteration++;
+			long startTime = System.nanoTime();
+			double[][] centroidArrays = this.getCentroidArrays(this.centroids);
+			if (features.isSparse()) {
+				this.assignSparseInstances();
+			}
+			else for (int i = 0; i < features.rows(); i++) {
 				
-				double[] instance = features.row(i);
+				features.copyRow(i, instance);
 				int closestCentroid = -1;
 				double closestDistance = Double.POSITIVE_INFINITY;
 				
 				for (int j = 0; j < numClusters; j++) {
-					ArrayList<Double> centroid = this.centroids.get(j);
-					Double[] centroidArray = new Double[centroid.size()];
-					double distance = this.getDistanceBetweenInstances(centroid.toArray(centroidArray), instance);
+					double distance = this.getDistanceBetweenInstances(centroidArrays[j], instance);
 					
 					if (distance < closestDistance) {
 						closestDistance = distance;
 						closestCentroid = j;
 					}
 				}
-				System.out.print(i + ":" + closestCentroid + ",");
 				this.clusterLists.get(closestCentroid).add(i);
 			}
+			listener.epochEnded(iteration, "reassigned instances", this.updateAssignments(assignments));
+			long updateTime = System.nanoTime();
+			assignNanos += updateTime - startTime;
 			
 			ArrayList<ArrayList<Double>> oldCentroids = this.copyCentroidArray();
 			ArrayList<ArrayList<Double>> newCentroids = this.copyCentroidArray(); // Array to hold averages (centroid) for medoid calculation
@@ -84,11 +135,10 @@ public class KMeansCluster extends SupervisedLearner {
 			for (int i = 0; i < this.numClusters; i++) {
 				double smallestDist = Double.POSITIVE_INFINITY;
 				int newMedoidIndex = -1;
-				ArrayList<Double> centroid = newCentroids.get(i);
+				double[] centroid = this.toArray(newCentroids.get(i));
 				for (int j = 0; j < this.features.rows(); j++) {
-					double[] instance = this.features.row(j);
-					Double[] centroidArray = new Double[centroid.size()];
-					double distance = this.getDistanceBetweenInstances(centroid.toArray(centroidArray), instance);
+					this.features.copyRow(j, instance);
+					double distance = this.getDistanceBetweenInstances(centroid, instance);
 					if (distance < smallestDist) {
 						smallestDist = distance;
 						newMedoidIndex = j;
@@ -102,7 +152,7 @@ public class KMeansCluster extends SupervisedLearner {
 			}
 			//-------------------------------------------------------------------
 			
-			this.printCentroids();
+			updateNanos += System.nanoTime() - updateTime;
 			centroidHasChanged = this.centroidHasChanged(oldCentroids);
 			
 			if (centroidHasChanged) {
@@ -112,18 +162,77 @@ public class KMeansCluster extends SupervisedLearner {
 				}
 			}
 		}
+		listener.phaseTimed("assigning instances", assignNanos);
+		listener.phaseTimed("moving centroids", updateNanos);
+		listener.counter("Iterations", iteration);
+		long startTime = System.nanoTime();
 		double silhouette = this.calcTotalSilhouette();
+		listener.phaseTimed("silhouette", System.nanoTime() - startTime);
 		this.printResults(silhouette);
+		this.countClusterLabels();
+	}
+	
+	// Counts the labels of the instances in each cluster for predictScores
+	private void countClusterLabels() {
+		int labelValues = this.labels.valueCount(0);
+		this.clusterLabelCounts = new int[numClusters][labelValues];
+		for (int i = 0; i < numClusters; i++) {
+			ArrayList<Integer> clusterList = this.clusterLists.get(i);
+			for (int j = 0; j < clusterList.size(); j++) {
+				double label = this.labels.get(clusterList.get(j), 0);
+				if (label >= 0 && label < labelValues)
+					this.clusterLabelCounts[i][(int)label]++;
+			}
+		}
+	}
+	
+	/*
+	 * Adds every instance to the list of its closest centroid, visiting only
+	 * the non-zero cells of each instance. The distance from a centroid to
+	 * the all-zero row is computed once per centroid and then corrected for
+	 * each non-zero cell.
+	 */
+	private void assignSparseInstances() {
+		int cols = this.features.cols();
+		double[][] centroidArrays = new double[numClusters][cols];
+		double[] zeroDistances = new double[numClusters];
+		for (int j = 0; j < numClusters; j++) {
+			ArrayList<Double> centroid = this.centroids.get(j);
+			for (int c = 0; c < cols; c++) {
+				centroidArrays[j][c] = centroid.get(c);
+				double distance = getDistance(centroidArrays[j][c], 0, features.valueCount(c));
+				zeroDistances[j] += distance * distance;
+			}
+		}
+		int[] index = new int[cols];
+		double[] value = new double[cols];
+		for (int i = 0; i < this.features.rows(); i++) {
+			int nonZeros = this.features.copySparseRow(i, index, value);
+			int closestCentroid = -1;
+			double closestDistance = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < numClusters; j++) {
+				double[] centroid = centroidArrays[j];
+				double total = zeroDistances[j];
+				for (int k = 0; k < nonZeros; k++) {
+					int c = index[k];
+					double distance = getDistance(centroid[c], value[k], features.valueCount(c));
+					double zeroDistance = getDistance(centroid[c], 0, features.valueCount(c));
+					total += distance * distance - zeroDistance * zeroDistance;
+				}
+				double distance = Math.sqrt(Math.max(0, total));
+				if (distance < closestDistance) {
+					closestDistance = distance;
+					closestCentroid = j;
+				}
+			}
+			this.clusterLists.get(closestCentroid).add(i);
+		}
 	}
 	
 	private boolean centroidHasChanged(ArrayList<ArrayList<Double>> oldCentroids) {
 		for (int i = 0; i < numClusters; i++) {
-			ArrayList<Double> oldCentroid = oldCentroids.get(i);
-			ArrayList<Double> newCentroid = this.centroids.get(i);
-			Double[] oldArray = new Double[oldCentroid.size()];
-			Double[] newArray = new Double[newCentroid.size()];
-			double distance =
-					this.getDistanceBetweenInstances(oldCentroid.toArray(oldArray), newCentroid.toArray(newArray));
+			double distance = this.getDistanceBetweenInstances(this.toArray(oldCentroids.get(i)),
+					this.toArray(this.centroids.get(i)));
 			if (distance != 0) {
 				return true;
 			}
@@ -133,13 +242,15 @@ public class KMeansCluster extends SupervisedLearner {
 	
 	private double getColumnAverage(int column, ArrayList<Integer> instances) {
 		int valueCount = this.features.valueCount(column);
+		boolean checkMissing = this.features.hasMissing(column);
 		if (valueCount == 0) {
 			double sum = 0;
 			int count = 0;
 			for (int i = 0; i < instances.size(); i++) {
 				int index = instances.get(i);
-				if (this.features.get(index, column) != MISSING) {
-					sum += this.features.get(index, column);
+				double value = this.features.get(index, column);
+				if (!checkMissing || value != MISSING) {
+					sum += value;
 					count++;
 				}
 			}
@@ -154,7 +265,7 @@ public class KMeansCluster extends SupervisedLearner {
 			for (int i = 0; i < instances.size(); i++) {
 				int index = instances.get(i);
 				double value = this.features.get(index, column);
-				if (value != MISSING) {
+				if (!checkMissing || value != MISSING) {
 					int count = attributeValueCount.get((int)value);
 					attributeValueCount.set((int)value, (count+1));
 				}
@@ -173,26 +284,17 @@ public class KMeansCluster extends SupervisedLearner {
 		}
 	}
 	
-	private double getDistanceBetweenInstances(Double[] centroid, double[] instance) {
-		double totalDistance = 0;
-		for(int i = 0; i < this.features.cols(); i++) {
-			double distance = getDistance(centroid[i], instance[i], features.valueCount(i));
-			totalDistance += Math.pow(distance, 2);
-		}
-		totalDistance = Math.sqrt(totalDistance);
-		return totalDistance;
-	}
-	
 	private double calcClusterSSE(int cluster) {
 		double SSE = 0;
-		ArrayList<Double> centroid = this.centroids.get(cluster);
-		Double[] centroidArray = new Double[centroid.size()];
+		double[] centroid = this.toArray(this.centroids.get(cluster));
 		
 		ArrayList<Integer> clusterList = this.clusterLists.get(cluster);
+		double[] instance = new double[this.features.cols()];
 		for (int i = 0; i < clusterList.size(); i++) {
 			int index = clusterList.get(i);
-			double[] instance = this.features.row(index);
-			SSE += Math.pow(this.getDistanceBetweenInstances(centroid.toArray(centroidArray), instance), 2);
+			this.features.copyRow(index, instance);
+			double distance = this.getDistanceBetweenInstances(centroid, instance);
+			SSE += distance * distance;
 		}
 		return SSE;
 	}
@@ -211,26 +313,65 @@ public class KMeansCluster extends SupervisedLearner {
 	}
 	
 	private void printResults(double silhouette) {
+		TrainingListener listener = this.getTrainingListener();
 		double totalSSE = 0;
-		System.out.println("Number of clusters: " + this.numClusters);
+		listener.counter("Number of clusters", this.numClusters);
 		for (int i = 0; i < this.numClusters; i++) {
-			ArrayList<Double> centroid = this.centroids.get(i);
-			System.out.print("Centroid " + i + ": ");
-			for (int j = 0; j < centroid.size(); j++) {
-				if (centroid.get(j) == MISSING)
-					System.out.print("?" + " ");
-				else if (features.valueCount(j) == 0)
-					System.out.print(centroid.get(j) + " ");
-				else
-					System.out.print(features.attrValue(j, (int)(double)centroid.get(j)) + " ");
-			}
-			System.out.println("\nNumber of instances: " + this.clusterLists.get(i).size());
+			final int cluster = i;
 			double clusterSSE = this.calcClusterSSE(i);
 			totalSSE += clusterSSE;
-			System.out.println("Cluster SSE: " + clusterSSE);
+			listener.message(() -> this.centroidToString("Centroid " + cluster + ": ", cluster, true)
+					+ "\nNumber of instances: " + this.clusterLists.get(cluster).size()
+					+ "\nCluster SSE: " + clusterSSE);
+		}
+		final double sse = totalSSE;
+		listener.message(() -> "Total SSE: " + sse);
+		listener.message(() -> "Silhouette: " + silhouette);
+	}
+	
+	/*
+	 * Returns the values of a centroid after the prefix, with "?" for missing
+	 * values. If nominalNames is true nominal values are shown by name.
+	 */
+	private String centroidToString(String prefix, int cluster, boolean nominalNames) {
+		StringBuilder b = new StringBuilder(prefix);
+		ArrayList<Double> centroid = this.centroids.get(cluster);
+		for (int j = 0; j < centroid.size(); j++) {
+			if (centroid.get(j) == MISSING)
+				b.append("?");
+			else if (nominalNames && features.valueCount(j) != 0)
+				b.append(features.attrValue(j, (int)(double)centroid.get(j)));
+			else
+				b.append(centroid.get(j));
+			b.append(" ");
+		}
+		return b.toString();
+	}
+	
+	private String centroidsToString(String prefix) {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < this.numClusters; i++)
+			b.append(i == 0 ? "" : "\n").append(this.centroidToString(prefix + i + ": ", i, false));
+		return b.toString();
+	}
+	
+	/*
+	 * Records the cluster of every instance from the cluster lists and
+	 * returns how many instances changed cluster since the last call.
+	 */
+	private int updateAssignments(int[] assignments) {
+		int changed = 0;
+		for (int j = 0; j < numClusters; j++) {
+			ArrayList<Integer> clusterList = this.clusterLists.get(j);
+			for (int i = 0; i < clusterList.size(); i++) {
+				int index = clusterList.get(i);
+				if (assignments[index] != j) {
+					assignments[index] = j;
+					changed++;
+				}
+			}
 		}
-		System.out.println("Total SSE: " + totalSSE);
-		System.out.println("Silhouette: " + silhouette);
+		return changed;
 	}
 	
 	private ArrayList<ArrayList<Double>> copyCentroidArray() {
@@ -260,8 +401,9 @@ public class KMeansCluster extends SupervisedLearner {
 	private double calcSilhouetteCluster(int cluster) {
 		ArrayList<Integer> clusterList = this.clusterLists.get(cluster);
 		double totalSilhouette = 0;
+		double[] instance = new double[this.features.cols()];
 		for (int i = 0; i < clusterList.size(); i++) {
-			double[] instance = this.features.row(clusterList.get(i));
+			this.features.copyRow(clusterList.get(i), instance);
 			totalSilhouette += this.calcSilhouetteInstance(instance, cluster);
 		}
 		return (totalSilhouette / clusterList.size());
@@ -277,8 +419,9 @@ public class KMeansCluster extends SupervisedLearner {
 	private double silhouetteCalcA(double[] instance, int cluster) {
 		ArrayList<Integer> instances = this.clusterLists.get(cluster);
 		double distance = 0;
+		double[] clusterInstance = new double[features.cols()];
 		for (int i = 0; i < instances.size(); i++) {
-			double[] clusterInstance = features.row(instances.get(i));
+			features.copyRow(instances.get(i), clusterInstance);
 			distance += this.getDistanceBetweenInstances(instance, clusterInstance);
 		}
 		return (distance / instances.size());
@@ -297,22 +440,7 @@ public class KMeansCluster extends SupervisedLearner {
 		return smallestDist;
 	}
 	
-	private void printCentroids() {
-		for (int i = 0; i < this.numClusters; i++) {
-			System.out.println("\nCentroid " + i + ": ");
-			ArrayList<Double> centroid = this.centroids.get(i);
-			for (int j = 0; j < features.cols(); j++) {				
-				if (centroid.get(j) == MISSING)
-					System.out.print("?" + " ");
-				else
-					System.out.print(centroid.get(j) + " ");
-			}
-		}
-		System.out.println();
-	}
-	
 	private ArrayList<ArrayList<Double>> getRandomCentroids() {
-		Random rand = new Random();
 		ArrayList<Integer> randRows = new ArrayList<Integer>();
 		while (randRows.size() < this.numClusters) {
 			int randRow = rand.nextInt(this.features.rows());
@@ -323,41 +451,262 @@ public class KMeansCluster extends SupervisedLearner {
 		
 		for (int i = 0; i < this.numClusters; i++) {
 			int row = randRows.get(i);
-			System.out.println("\nCentroid " + i + ": ");
 			ArrayList<Double> centroid = this.centroids.get(i);
 			for (int j = 0; j < features.cols(); j++) {
 				centroid.add(features.get(row, j));
-				
-				if (features.get(row, j) == MISSING)
-					System.out.print("?" + " ");
-				else
-					System.out.print(features.get(row, j) + " ");
 			}
 		}	
 		return centroids;
 	}
 	
-	private double getDistanceBetweenInstances(Double[] centroid, Double[] instance) {
-		double totalDistance = 0;
-		for(int i = 0; i < this.features.cols(); i++) {
-			double distance = getDistance(centroid[i], instance[i], features.valueCount(i));
-			totalDistance += Math.pow(distance, 2);
+	private double getDistanceBetweenInstances(double[] centroid, double[] instance) {
+		double totalDistance;
+		if (this.complete)
+			totalDistance = Kernels.mixedSquaredDistance(centroid, instance, this.nominal, this.features.cols());
+		else
+			totalDistance = Kernels.mixedSquaredDistance(centroid, instance, this.nominal, this.features.cols(), 1);
+		return Math.sqrt(totalDistance);
+	}
+	
+	private double[] toArray(ArrayList<Double> centroid) {
+		double[] array = new double[centroid.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = centroid.get(i);
+		return array;
+	}
+	
+	private double[][] getCentroidArrays(ArrayList<ArrayList<Double>> centroids) {
+		double[][] arrays = new double[centroids.size()][];
+		for (int i = 0; i < arrays.length; i++)
+			arrays[i] = this.toArray(centroids.get(i));
+		return arrays;
+	}
+
+	/*
+	 * Online k-means: each row of the batch moves only its closest centroid.
+	 * A continuous column moves by the difference divided by the number of
+	 * rows the cluster has taken so far, which keeps it at the running mean;
+	 * a nominal column takes the most common value seen in the cluster.
+	 * Missing values leave their column alone. An untrained model takes its
+	 * centroids from the first rows it is given, and a trained or loaded
+	 * model carries on from its centroids and cluster sizes.
+	 */
+	@Override
+	public void partialFit(Matrix features, Matrix labels) throws Exception {
+		if (features.rows() != labels.rows())
+			throw new Exception("Number of instances and number of outputs don't match");
+		int cols = features.cols();
+		if (this.nominal == null) {
+			this.nominal = new boolean[cols];
+			for (int i = 0; i < cols; i++)
+				this.nominal[i] = features.valueCount(i) != 0;
+			this.complete = false;
+			this.centroids = new ArrayList<ArrayList<Double>>(numClusters);
+			this.clusterLabelCounts = new int[numClusters][labels.valueCount(0)];
+		}
+		else if (this.nominal.length != cols)
+			throw new Exception("Expected " + this.nominal.length + " features, found " + cols);
+		if (this.clusterSizes == null)
+			this.initOnlineState(features);
+
+		double[][] centroidArrays = this.getCentroidArrays(this.centroids);
+		int seeded = this.centroids.size();
+		double[] instance = new double[cols];
+		for (int r = 0; r < features.rows(); r++) {
+			features.copyRow(r, instance);
+			int closestCentroid;
+			if (seeded < numClusters) {
+				closestCentroid = seeded++;
+				centroidArrays = Arrays.copyOf(centroidArrays, seeded);
+				centroidArrays[closestCentroid] = instance.clone();
+			}
+			else {
+				closestCentroid = -1;
+				double closestDistance = Double.POSITIVE_INFINITY;
+				for (int j = 0; j < numClusters; j++) {
+					double distance = Kernels.mixedSquaredDistance(centroidArrays[j], instance, this.nominal, cols, 1);
+					if (distance < closestDistance) {
+						closestDistance = distance;
+						closestCentroid = j;
+					}
+				}
+			}
+			this.updateCentroid(closestCentroid, centroidArrays[closestCentroid], instance);
+			double label = labels.get(r, 0);
+			int[] counts = this.clusterLabelCounts[closestCentroid];
+			if (label >= 0 && label < counts.length)
+				counts[(int)label]++;
+		}
+		this.centroids = new ArrayList<ArrayList<Double>>(numClusters);
+		for (int j = 0; j < centroidArrays.length; j++) {
+			ArrayList<Double> centroid = new ArrayList<Double>(cols);
+			for (int c = 0; c < cols; c++)
+				centroid.add(centroidArrays[j][c]);
+			this.centroids.add(centroid);
 		}
-		totalDistance = Math.sqrt(totalDistance);
-		return totalDistance;
 	}
 	
-	private double getDistanceBetweenInstances(double[] centroid, double[] instance) {
-		double totalDistance = 0;
-		for(int i = 0; i < this.features.cols(); i++) {
-			double distance = getDistance(centroid[i], instance[i], features.valueCount(i));
-			totalDistance += Math.pow(distance, 2);
+	// Sets the cluster sizes and nominal value counts from the current centroids
+	private void initOnlineState(Matrix features) {
+		this.clusterSizes = new int[numClusters];
+		this.nominalCounts = new int[numClusters][this.nominal.length][];
+		for (int j = 0; j < numClusters; j++) {
+			if (j >= this.centroids.size())
+				continue;
+			int size = 0;
+			if (this.clusterLists != null)
+				size = this.clusterLists.get(j).size();
+			else for (int count : this.clusterLabelCounts[j])
+				size += count;
+			this.clusterSizes[j] = Math.max(1, size);
+		}
+		for (int j = 0; j < numClusters; j++) {
+			for (int c = 0; c < this.nominal.length; c++) {
+				if (!this.nominal[c])
+					continue;
+				int[] counts = new int[features.valueCount(c)];
+				if (j < this.centroids.size()) {
+					// A trained centroid counts as clusterSizes[j] rows of its value
+					double value = this.centroids.get(j).get(c);
+					if (value >= 0 && value < counts.length)
+						counts[(int)value] = this.clusterSizes[j];
+				}
+				this.nominalCounts[j][c] = counts;
+			}
 		}
-		totalDistance = Math.sqrt(totalDistance);
-		return totalDistance;
+	}
+	
+	private void updateCentroid(int cluster, double[] centroid, double[] instance) {
+		int size = ++this.clusterSizes[cluster];
+		for (int c = 0; c < instance.length; c++) {
+			double value = instance[c];
+			if (value == MISSING)
+				continue;
+			if (!this.nominal[c]) {
+				if (centroid[c] == MISSING)
+					centroid[c] = value;
+				else
+					centroid[c] += (value - centroid[c]) / size;
+				continue;
+			}
+			int[] counts = this.nominalCounts[cluster][c];
+			if (value >= counts.length)
+				continue;
+			counts[(int)value]++;
+			if (centroid[c] == MISSING || counts[(int)value] > counts[(int)centroid[c]])
+				centroid[c] = value;
+		}
+	}
+
+	@Override
+	public boolean isPredictThreadSafe() {
+		return true;
+	}
+
+	/*
+	 * Predicts the most common training label of the closest cluster (the
+	 * lowest on a tie), which is the label predictScores scores highest.
+	 * Without label counts the prediction is left as it is.
+	 */
+	@Override
+	public void predict(double[] features, double[] labels) throws Exception {
+		int closestCentroid = this.findClosestCentroid(features);
+		if (this.clusterLabelCounts == null || closestCentroid < 0)
+			return;
+		int[] counts = this.clusterLabelCounts[closestCentroid];
+		if (counts.length == 0)
+			return;
+		int best = 0;
+		for (int i = 1; i < counts.length; i++) {
+			if (counts[i] > counts[best])
+				best = i;
+		}
+		labels[0] = best;
+	}
+
+	/*
+	 * Finds the closest centroid; the scores are the label frequencies of the
+	 * training instances in that cluster.
+	 */
+	@Override
+	public void predictScores(double[] features, double[] scores) throws Exception {
+		int closestCentroid = this.findClosestCentroid(features);
+		if (this.clusterLabelCounts == null || this.clusterLabelCounts[0].length != scores.length || scores.length < 2
+				|| closestCentroid < 0) {
+			super.predictScores(features, scores);
+			return;
+		}
+		int[] counts = this.clusterLabelCounts[closestCentroid];
+		int total = 0;
+		for (int i = 0; i < counts.length; i++)
+			total += counts[i];
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = total == 0 ? 1.0 / scores.length : (double)counts[i] / total;
+	}
+
+	// Returns the index of the centroid closest to features, or -1 if there are none
+	private int findClosestCentroid(double[] features) {
+		int closestCentroid = -1;
+		double closestDistance = Double.POSITIVE_INFINITY;
+		if (this.centroids == null)
+			return closestCentroid;
+		for (int j = 0; j < this.centroids.size(); j++) {
+			// The features may have missing values even if the training data had none
+			double distance = Kernels.mixedSquaredDistance(this.toArray(this.centroids.get(j)), features,
+					this.nominal, features.length, 1);
+			if (distance < closestDistance) {
+				closestDistance = distance;
+				closestCentroid = j;
+			}
+		}
+		return closestCentroid;
 	}
 
+	// Saves the number of clusters, the centroids found so far, the column types and the
+	// label counts of each cluster
 	@Override
-	public void predict(double[] features, double[] labels) throws Exception {}
+	protected void writeModel(DataOutputStream out) throws Exception {
+		out.writeInt(CENTROID_COUNT);
+		out.writeInt(numClusters);
+		out.writeInt(this.nominal.length);
+		// partialFit may not have seen numClusters rows yet
+		out.writeInt(this.centroids.size());
+		for (int i = 0; i < this.centroids.size(); i++)
+			ModelIO.writeDoubles(out, this.toArray(this.centroids.get(i)));
+		for (int i = 0; i < this.nominal.length; i++)
+			out.writeBoolean(this.nominal[i]);
+		out.writeBoolean(this.complete);
+		for (int i = 0; i < numClusters; i++)
+			ModelIO.writeInts(out, this.clusterLabelCounts[i]);
+	}
+
+	@Override
+	protected void readModel(DataInputStream in) throws Exception {
+		int tag = in.readInt();
+		numClusters = tag == CENTROID_COUNT ? in.readInt() : tag;
+		int cols = in.readInt();
+		int count = tag == CENTROID_COUNT ? in.readInt() : numClusters;
+		if (count < 0 || count > numClusters)
+			throw new Exception("Expected at most " + numClusters + " centroids, found " + count);
+		centroids = new ArrayList<ArrayList<Double>>(numClusters);
+		for (int i = 0; i < count; i++) {
+			double[] values = ModelIO.readDoubles(in);
+			ArrayList<Double> centroid = new ArrayList<Double>(cols);
+			for (int j = 0; j < values.length; j++)
+				centroid.add(values[j]);
+			centroids.add(centroid);
+		}
+		this.nominal = new boolean[cols];
+		for (int i = 0; i < cols; i++)
+			this.nominal[i] = in.readBoolean();
+		this.complete = in.readBoolean();
+		this.clusterLabelCounts = new int[numClusters][];
+		for (int i = 0; i < numClusters; i++)
+			this.clusterLabelCounts[i] = ModelIO.readInts(in);
+		this.clusterLists = null;
+		this.clusterSizes = null;
+		this.features = null;
+		this.labels = null;
+	}
 
-}
+}
\ No newline at end of file
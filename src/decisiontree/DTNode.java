@@ -15,6 +15,7 @@ public class DTNode {
 	private Map<Integer, DTNode> children;
 	private List<Integer> featuresUsed;
 	private int featureSplitOn;
+	private int[] labelCounts; // label histogram of a node loaded from a model file
 	
 	public DTNode()
 	{
@@ -85,21 +86,37 @@ public class DTNode {
 	
 	public int getNumInstancesOfFeatureType(int featureCol, int featureType)
 	{
-		int count = 0;
-		for (int j = 0; j < this.getNumInstances(); j++)
+		return countValues(instances.column(featureCol), featureType);
+	}
+	
+	public int getNumInstancesOfOutputType(int featureType)
+	{
+		return countValues(labels.column(0), featureType);
+	}
+	
+	/*
+	 * Counts how many instances take each value of a nominal column in a single
+	 * pass over the column. Unknown values are not counted.
+	 */
+	public int[] getValueCounts(Matrix matrix, int col)
+	{
+		int[] counts = new int[matrix.valueCount(col)];
+		int[] codes = matrix.copyCodes(col, new int[matrix.rows()]);
+		for (int j = 0; j < codes.length; j++)
 		{
-			if (instances.get(j, featureCol) == featureType)
-				count++;
+			int value = codes[j];
+			if (value >= 0 && value < counts.length)
+				counts[value]++;
 		}
-		return count;
+		return counts;
 	}
 	
-	public int getNumInstancesOfOutputType(int featureType)
+	private int countValues(double[] column, int value)
 	{
 		int count = 0;
-		for (int j = 0; j < this.getNumInstances(); j++)
+		for (int j = 0; j < column.length; j++)
 		{
-			if (labels.get(j, 0) == featureType)
+			if (column[j] == value)
 				count++;
 		}
 		return count;
@@ -133,15 +150,39 @@ public class DTNode {
 			}
 		}
 	}
+	
+	/*
+	 * Returns the indexes of the instances that have the specified value for a
+	 * feature, for building row-index views of this node's matrices.
+	 */
+	public int[] getRowsOfFeatureType(int featureCol, int featureType)
+	{
+		int[] codes = instances.copyCodes(featureCol, new int[instances.rows()]);
+		int count = 0;
+		for (int i = 0; i < codes.length; i++)
+		{
+			if (codes[i] == featureType)
+				count++;
+		}
+		int[] rows = new int[count];
+		count = 0;
+		for (int i = 0; i < codes.length; i++)
+		{
+			if (codes[i] == featureType)
+				rows[count++] = i;
+		}
+		return rows;
+	}
 
 	public double calcInfo()
 	{
 		int totalInstances = instances.rows();
 		int outputClassCount = labels.valueCount(0);
+		int[] counts = this.getValueCounts(labels, 0);
 		double infoSum = 0;
 		for (int i = 0; i < outputClassCount; i++)
 		{
-			int count = this.getNumInstancesOfOutputType(i);
+			int count = counts[i];
 			infoSum -= ((double)count / (double)totalInstances) * logBase2((double)count / (double)totalInstances);
 		}
 		return infoSum;
@@ -151,10 +192,11 @@ public class DTNode {
 	{
 		int totalInstances = instances.rows();
 		int featureValueCount = this.getNumFeatureValues(featureCol);
+		int[] counts = this.getValueCounts(instances, featureCol);
 		double infoSum = 0;
 		for (int i = 0; i < featureValueCount; i++)
 		{
-			int count = this.getNumInstancesOfFeatureType(featureCol, i);
+			int count = counts[i];
 			infoSum -= ((double)count / (double)totalInstances) * logBase2((double)count / (double)totalInstances);
 		}
 		return infoSum;
@@ -194,6 +236,27 @@ public class DTNode {
 		return false;
 	}
 	
+	/*
+	 * Returns how many training instances of each label reached this node,
+	 * or null if the node has neither instances nor saved counts.
+	 */
+	public int[] getLabelCounts()
+	{
+		if (this.labels != null && this.labels.rows() > 0)
+			return this.getValueCounts(this.labels, 0);
+		return this.labelCounts;
+	}
+	
+	public void setLabelCounts(int[] labelCounts)
+	{
+		this.labelCounts = labelCounts;
+	}
+	
+	public Map<Integer, DTNode> getChildren()
+	{
+		return this.children;
+	}
+	
 	public DTNode getChild(double featureValue)
 	{
 		return this.children.get((int)featureValue);
@@ -1,9 +1,14 @@
 package decisiontree;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.Map;
 
 import toolkit.Matrix;
+import toolkit.ModelIO;
 import toolkit.SupervisedLearner;
+import toolkit.TrainingListener;
 
 public class DecisionTree extends SupervisedLearner 
 {
@@ -12,10 +17,13 @@ public class DecisionTree extends SupervisedLearner
 	private double bestAccSoFar;
 	private Matrix validationFeatures;
 	private Matrix validationLabels;
+	private int pruneSteps;
 	
 	@Override
 	public void train(Matrix features, Matrix labels) throws Exception {
 		features.replaceUnknowns();
+		// Split selection counts values column by column
+		features.setLayout(Matrix.Layout.COLUMN_MAJOR);
 		
 		int numTrainingSet = (int)(features.rows() * 0.8);
 		int numValidationSet = features.rows() - numTrainingSet;
@@ -31,12 +39,91 @@ public class DecisionTree extends SupervisedLearner
 		//root.setInstances(trainingFeatures, trainingLabels);
 		root.setInstances(features, labels);
 		root.incNodeCount();
+		long startTime = System.nanoTime();
 		this.divideNode(root);
+		getTrainingListener().phaseTimed("growing the tree", System.nanoTime() - startTime);
 		//this.pruneRoot();
 	}
 
+	// Prediction only walks the finished tree
+	@Override
+	public boolean isPredictThreadSafe() {
+		return true;
+	}
+
 	@Override
 	public void predict(double[] features, double[] labels) throws Exception {
+		DTNode currentNode = this.findNode(features);
+		double outputClass = currentNode.getLabel();
+		labels[0] = outputClass;
+	}
+	
+	/*
+	 * The scores are the label frequencies of the training instances that
+	 * reached the node the features end at. The node's own label is the most
+	 * common one, but ties can make it differ from the highest score, so it
+	 * gets half an extra count to keep the two in agreement.
+	 */
+	@Override
+	public void predictScores(double[] features, double[] scores) throws Exception {
+		DTNode currentNode = this.findNode(features);
+		int[] counts = currentNode.getLabelCounts();
+		if (counts == null || counts.length != scores.length || currentNode.getLabel() == null) {
+			super.predictScores(features, scores);
+			return;
+		}
+		double total = 0.5;
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = counts[i];
+			total += counts[i];
+		}
+		scores[(int)(double)currentNode.getLabel()] += 0.5;
+		for (int i = 0; i < scores.length; i++)
+			scores[i] /= total;
+	}
+	
+	// Saves the tree depth first, without the training instances
+	@Override
+	protected void writeModel(DataOutputStream out) throws Exception {
+		writeNode(out, root);
+	}
+
+	@Override
+	protected void readModel(DataInputStream in) throws Exception {
+		root = readNode(in);
+	}
+
+	private void writeNode(DataOutputStream out, DTNode node) throws Exception {
+		out.writeBoolean(node.getLabel() != null);
+		if (node.getLabel() != null)
+			out.writeDouble(node.getLabel());
+		out.writeInt(node.getFeatureSplitOn());
+		int[] counts = node.getLabelCounts();
+		ModelIO.writeInts(out, counts == null ? new int[0] : counts);
+		out.writeInt(node.getChildCount());
+		for (Map.Entry<Integer, DTNode> child : node.getChildren().entrySet()) {
+			out.writeInt(child.getKey());
+			writeNode(out, child.getValue());
+		}
+	}
+
+	private DTNode readNode(DataInputStream in) throws Exception {
+		DTNode node = new DTNode();
+		if (in.readBoolean())
+			node.setLabel(in.readDouble());
+		node.setFeatureSplitOn(in.readInt());
+		int[] counts = ModelIO.readInts(in);
+		node.setLabelCounts(counts.length == 0 ? null : counts);
+		int children = in.readInt();
+		for (int i = 0; i < children; i++) {
+			int key = in.readInt();
+			node.addChild(readNode(in), key);
+		}
+		return node;
+	}
+
+	// Returns the node that the features are sorted into
+	private DTNode findNode(double[] features) {
 		DTNode currentNode = this.root;
 		while (currentNode.hasChildren())
 		{
@@ -45,8 +132,7 @@ public class DecisionTree extends SupervisedLearner
 				break;
 			currentNode = currentNode.getChild(features[featureSplitOn]);
 		}
-		double outputClass = currentNode.getLabel();
-		labels[0] = outputClass;
+		return currentNode;
 	}
 	
 	private void divideNode(DTNode node) throws Exception
@@ -88,9 +174,9 @@ public class DecisionTree extends SupervisedLearner
 		int numFeatureValues = node.getNumFeatureValues(featureToSplitOn);
 		for (int i = 0; i < numFeatureValues; i++)
 		{
-			Matrix childInstances = new Matrix(node.getInstances(), 0, 0, 0, node.getColumnCount());
-			Matrix childLabels = new Matrix(node.getLabels(), 0, 0, 0, 1);
-			node.getInstancesOfFeatureType(featureToSplitOn, i, childInstances, childLabels);
+			int[] rows = node.getRowsOfFeatureType(featureToSplitOn, i);
+			Matrix childInstances = new Matrix(node.getInstances(), rows, 0, node.getColumnCount());
+			Matrix childLabels = new Matrix(node.getLabels(), rows.clone(), 0, 1);
 			
 			DTNode child = new DTNode(childInstances, childLabels);
 			child.setFeaturesUsed(new ArrayList<Integer>(node.getFeaturesUsed()));
@@ -112,11 +198,10 @@ public class DecisionTree extends SupervisedLearner
 		int numFeatureValues = node.getNumFeatureValues(featureCol);
 		for (int i = 0; i < numFeatureValues; i++)
 		{
-			int instanceCount = node.getNumInstancesOfFeatureType(featureCol, i);
-			Matrix instancesOfFeatureType = new Matrix(node.getInstances(), 0, 0, 0, node.getColumnCount());
-			Matrix labelsOfFeatureType = new Matrix(node.getLabels(), 0, 0, 0, 1);
-				
-			node.getInstancesOfFeatureType(featureCol, i, instancesOfFeatureType, labelsOfFeatureType);
+			int[] rows = node.getRowsOfFeatureType(featureCol, i);
+			int instanceCount = rows.length;
+			Matrix instancesOfFeatureType = new Matrix(node.getInstances(), rows, 0, node.getColumnCount());
+			Matrix labelsOfFeatureType = new Matrix(node.getLabels(), rows.clone(), 0, 1);
 			DTNode tempNode = new DTNode(instancesOfFeatureType, labelsOfFeatureType);
 			double tempNodeInfo = 0;
 			if (!tempNode.isEmpty())
@@ -175,12 +260,18 @@ public class DecisionTree extends SupervisedLearner
 	
 	private void pruneRoot() throws Exception
 	{
-		System.out.println("Depth: " + this.getDepth(root));
-		System.out.println("Node count: " + root.getNodeCount());
+		TrainingListener listener = getTrainingListener();
+		listener.counter("Depth", this.getDepth(root));
+		listener.counter("Node count", root.getNodeCount());
 		this.bestAccSoFar = this.measureAccuracy(validationFeatures, validationLabels, null);
-		System.out.println("Accuracy: " + bestAccSoFar);
+		listener.message(() -> "Accuracy: " + bestAccSoFar);
 		bestTreeSoFar = new DTNode(root);
+		this.pruneSteps = 0;
+		long startTime = System.nanoTime();
 		this.pruneNode(root);
+		listener.phaseTimed("pruning", System.nanoTime() - startTime);
+		listener.counter("Depth", this.getDepth(root));
+		listener.counter("Node count", root.getNodeCount());
 	}
 	
 	private void pruneNode(DTNode node) throws Exception
@@ -200,12 +291,12 @@ public class DecisionTree extends SupervisedLearner
 			}
 			node.setLabel(node.getMostCommonLabel());
 			double acc = this.measureAccuracy(validationFeatures, validationLabels, null);
-			System.out.println("Depth: " + this.getDepth(root));
-			System.out.println("Node count: " + root.getNodeCount());
-			System.out.println("Accuracy: " + acc);
+			TrainingListener listener = getTrainingListener();
+			this.pruneSteps++;
+			listener.epochEnded(this.pruneSteps, "node count", root.getNodeCount());
+			listener.epochEnded(this.pruneSteps, "validation accuracy", acc);
 			if (acc >= this.bestAccSoFar)
 			{
-				System.out.println("NEW Best Accuracy");
 				this.bestAccSoFar = acc;
 				this.bestTreeSoFar = new DTNode(root);
 			}	
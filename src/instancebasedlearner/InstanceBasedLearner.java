@@ -1,17 +1,40 @@
 package instancebasedlearner;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Random;
 
+import toolkit.Kernels;
+import toolkit.LearnerConfig;
 import toolkit.Matrix;
+import toolkit.ModelIO;
 import toolkit.SupervisedLearner;
 
 public class InstanceBasedLearner extends SupervisedLearner {
 	private Matrix features;
 	private Matrix labels;
-	private final int kNearest = 15;
+	private int kNearest = 15;
 	private final double MISSING = Double.MAX_VALUE;
+	private final double MISSING_DISTANCE = .75;
+	private boolean[] nominal; // null if every column is continuous
+	private boolean complete; // true if no training cell is missing
+	// Queries and training rows per tile of the blocked batch search
+	private static final int QUERY_BLOCK = 16;
+	private static final int TRAIN_BLOCK = 256;
+	
+	@Override
+	public LearnerConfig getConfig() {
+		return new LearnerConfig().set("k", kNearest);
+	}
+	
+	@Override
+	public void configure(LearnerConfig config) throws Exception {
+		super.configure(config);
+		kNearest = config.getInt("k", kNearest);
+	}
 	
 	@Override
 	public void train(Matrix features, Matrix labels) throws Exception {
@@ -29,19 +52,96 @@ public class InstanceBasedLearner extends SupervisedLearner {
 		this.labels = labels;
 		this.features.normalize();
 		this.labels.normalize();
+		this.describeColumns();
+	}
+	
+	// Sets nominal and complete from the stored training instances
+	private void describeColumns() {
+		this.nominal = new boolean[this.features.cols()];
+		boolean anyNominal = false;
+		for (int i = 0; i < this.nominal.length; i++) {
+			this.nominal[i] = this.features.valueCount(i) != 0;
+			anyNominal |= this.nominal[i];
+		}
+		if (!anyNominal)
+			this.nominal = null;
+		this.complete = !this.features.isSparse() && !this.features.hasMissing();
+	}
+	
+	// The model is the training set itself
+	@Override
+	protected void writeModel(DataOutputStream out) throws Exception {
+		ModelIO.writeMatrix(out, this.features);
+		ModelIO.writeMatrix(out, this.labels);
+	}
+	
+	@Override
+	protected void readModel(DataInputStream in) throws Exception {
+		this.features = ModelIO.readMatrix(in);
+		this.labels = ModelIO.readMatrix(in);
+		this.describeColumns();
 	}
 	@Override
 	public void predict(double[] features, double[] labels) throws Exception {
 		ArrayList<Integer> nearestNeighbors = new ArrayList<Integer>(kNearest);
 		ArrayList<Double> nnDistances = new ArrayList<Double>(kNearest);
+		this.findNeighbors(features, nearestNeighbors, nnDistances);
+		double label = this.getLabel(nearestNeighbors, nnDistances);
+		labels[0] = label;
+	}
+	
+	/*
+	 * For a nominal label the scores are the share of the neighbors' votes
+	 * each label value gets.
+	 */
+	@Override
+	public void predictScores(double[] features, double[] scores) throws Exception {
+		if (this.labels.valueCount(0) != scores.length || scores.length < 2) {
+			super.predictScores(features, scores);
+			return;
+		}
+		ArrayList<Integer> nearestNeighbors = new ArrayList<Integer>(kNearest);
+		ArrayList<Double> nnDistances = new ArrayList<Double>(kNearest);
+		this.findNeighbors(features, nearestNeighbors, nnDistances);
+		Arrays.fill(scores, 0.0);
+		int votes = 0;
+		for (int i = 0; i < kNearest; i++) {
+			int index = nearestNeighbors.get(i);
+			if (index < 0)
+				continue;
+			scores[(int)this.labels.get(index, 0)]++;
+			votes++;
+		}
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = votes > 0 ? scores[i] / votes : 1.0 / scores.length;
+	}
+	
+	private void findNeighbors(double[] features, ArrayList<Integer> nearestNeighbors,
+			ArrayList<Double> nnDistances) {
 		// Set each of the NN distances to infinity, since there are no NN yet
 		for (int i = 0; i < kNearest; i++) {
 			nnDistances.add(i, Double.POSITIVE_INFINITY);
 			nearestNeighbors.add(i, -1);
 		}
 		
+		double[] neighbor = new double[this.features.cols()];
+		int[] index = null;
+		double zeroDistance = 0;
+		boolean known = this.complete && !this.hasMissing(features);
+		if (this.features.isSparse()) {
+			index = new int[this.features.cols()];
+			zeroDistance = this.calcSquaredDistanceToZero(features);
+		}
 		for (int i = 0; i < this.features.rows(); i++) {
-			double distance = this.calcDistance(features, this.features.row(i));
+			double distance;
+			if (index != null) {
+				int nonZeros = this.features.copySparseRow(i, index, neighbor);
+				distance = this.calcSparseDistance(features, zeroDistance, index, neighbor, nonZeros);
+			}
+			else if (known)
+				distance = this.calcKnownDistance(features, this.features.copyRow(i, neighbor));
+			else
+				distance = this.calcDistance(features, this.features.copyRow(i, neighbor));
 			for (int j = 0; j < kNearest; j++) {
 				if (distance < nnDistances.get(j)) {
 					nnDistances.set(j, distance);
@@ -50,23 +150,134 @@ public class InstanceBasedLearner extends SupervisedLearner {
 				}
 			}
 		}
-		double label = this.getLabel(nearestNeighbors, nnDistances);
-		labels[0] = label;
+	}
+	
+	@Override
+	public boolean isPredictThreadSafe() {
+		return true;
+	}
+	
+	/*
+	 * Searches the neighbors of QUERY_BLOCK queries at a time. Each block of
+	 * training rows is copied into a contiguous buffer once per block of
+	 * queries rather than once per query, and stays in cache while every
+	 * query of the block is measured against it. Each query still visits the
+	 * training rows in order, so it finds the same neighbors as predict.
+	 */
+	@Override
+	protected void predictRows(Matrix queries, int from, int to, double[] out, int outPos) throws Exception {
+		if (this.features.isSparse()) {
+			super.predictRows(queries, from, to, out, outPos);
+			return;
+		}
+		int cols = this.features.cols();
+		int trainRows = this.features.rows();
+		double[] query = new double[QUERY_BLOCK * cols];
+		double[] block = new double[TRAIN_BLOCK * cols];
+		boolean[] known = new boolean[QUERY_BLOCK];
+		double[][] nnDistances = new double[QUERY_BLOCK][kNearest];
+		int[][] nearestNeighbors = new int[QUERY_BLOCK][kNearest];
+		for (int qStart = from; qStart < to; qStart += QUERY_BLOCK) {
+			int qCount = Math.min(QUERY_BLOCK, to - qStart);
+			for (int q = 0; q < qCount; q++) {
+				queries.copyRow(qStart + q, query, q * cols);
+				known[q] = this.complete && !this.hasMissing(query, q * cols);
+				Arrays.fill(nnDistances[q], Double.POSITIVE_INFINITY);
+				Arrays.fill(nearestNeighbors[q], -1);
+			}
+			for (int tStart = 0; tStart < trainRows; tStart += TRAIN_BLOCK) {
+				int tCount = Math.min(TRAIN_BLOCK, trainRows - tStart);
+				for (int t = 0; t < tCount; t++)
+					this.features.copyRow(tStart + t, block, t * cols);
+				for (int q = 0; q < qCount; q++) {
+					double[] distances = nnDistances[q];
+					int[] neighbors = nearestNeighbors[q];
+					for (int t = 0; t < tCount; t++) {
+						double distance;
+						if (known[q])
+							distance = Kernels.mixedSquaredDistance(query, q * cols, block, t * cols, this.nominal, cols);
+						else
+							distance = Kernels.mixedSquaredDistance(query, q * cols, block, t * cols, this.nominal, cols,
+									MISSING_DISTANCE);
+						distance = Math.sqrt(distance);
+						for (int j = 0; j < kNearest; j++) {
+							if (distance < distances[j]) {
+								distances[j] = distance;
+								neighbors[j] = tStart + t;
+								break;
+							}
+						}
+					}
+				}
+			}
+			for (int q = 0; q < qCount; q++) {
+				ArrayList<Integer> neighbors = new ArrayList<Integer>(kNearest);
+				ArrayList<Double> distances = new ArrayList<Double>(kNearest);
+				for (int j = 0; j < kNearest; j++) {
+					neighbors.add(nearestNeighbors[q][j]);
+					distances.add(nnDistances[q][j]);
+				}
+				out[outPos + qStart + q - from] = this.getLabel(neighbors, distances);
+			}
+		}
 	}
 	
 	private double calcDistance(double[] instance1, double[] instance2) {
-		double totalDistance = 0;
+		double totalDistance = Kernels.mixedSquaredDistance(instance1, instance2, this.nominal,
+				this.features.cols(), MISSING_DISTANCE);
+		return Math.sqrt(totalDistance);
+	}
+	
+	/*
+	 * Same as calcDistance for two rows without missing values, which lets the
+	 * loop skip the MISSING checks.
+	 */
+	private double calcKnownDistance(double[] instance1, double[] instance2) {
+		return Math.sqrt(Kernels.mixedSquaredDistance(instance1, instance2, this.nominal, this.features.cols()));
+	}
+	
+	private boolean hasMissing(double[] instance) {
+		return this.hasMissing(instance, 0);
+	}
+	
+	private boolean hasMissing(double[] instances, int pos) {
 		for (int i = 0; i < this.features.cols(); i++) {
-			if (this.features.valueCount(i) == 0) {
-				double dist = this.getEuclideanDistance(instance1[i], instance2[i]);
-				totalDistance += Math.pow(dist, 2);
-			} else {
-				double dist = this.getNominalDistance(instance1[i], instance2[i]);
-				totalDistance += Math.pow(dist, 2);
-			}
+			if (instances[pos + i] == MISSING)
+				return true;
 		}
-		totalDistance = Math.sqrt(totalDistance);
-		return totalDistance;
+		return false;
+	}
+	
+	/*
+	 * The squared distance from instance to a row of all zeros. A sparse row
+	 * only differs from the zero row in its non-zero cells, so its distance
+	 * can be found by correcting this value for those cells alone.
+	 */
+	private double calcSquaredDistanceToZero(double[] instance) {
+		double total = 0;
+		for (int i = 0; i < this.features.cols(); i++) {
+			double dist = this.getColumnDistance(i, instance[i], 0);
+			total += dist * dist;
+		}
+		return total;
+	}
+	
+	private double calcSparseDistance(double[] instance, double zeroDistance, int[] index,
+			double[] value, int nonZeros) {
+		double totalDistance = zeroDistance;
+		for (int k = 0; k < nonZeros; k++) {
+			int col = index[k];
+			double dist = this.getColumnDistance(col, instance[col], value[k]);
+			double zeroDist = this.getColumnDistance(col, instance[col], 0);
+			totalDistance += dist * dist - zeroDist * zeroDist;
+		}
+		return Math.sqrt(Math.max(0, totalDistance));
+	}
+	
+	private double getColumnDistance(int col, double instance1, double instance2) {
+		if (this.features.valueCount(col) == 0)
+			return this.getEuclideanDistance(instance1, instance2);
+		return this.getNominalDistance(instance1, instance2);
 	}
 	
 	private double getLabel(ArrayList<Integer> nearestNeighbors, ArrayList<Double> nnDistances) {
@@ -84,7 +295,7 @@ public class InstanceBasedLearner extends SupervisedLearner {
 			double label = this.labels.get(index, 0);
 			int count = 1;
 			double distance = nnDistances.get(i);
-			distance = (1 / Math.pow(distance, 2));
+			distance = (1 / (distance * distance));
 			
 			if (labelCount.containsKey(label))
 				count = labelCount.get(label);
@@ -109,15 +320,22 @@ public class InstanceBasedLearner extends SupervisedLearner {
 		return bestLabel;
 	}
 	
+	/*
+	 * Returns the label with the most votes among the neighbors (the lowest
+	 * on a tie), which is the one predictScores scores highest. Unfilled
+	 * neighbor slots (-1) do not vote.
+	 */
 	private double getMostCommonLabel(ArrayList<Integer> nearestNeighbors) {
 		HashMap<Double, Integer> labelCount = new HashMap<Double, Integer>();
 		for (int i = 0; i < this.kNearest; i++) {
 			int index = nearestNeighbors.get(i);
+			if (index < 0)
+				continue;
 			double label = this.labels.get(index, 0);
 			int count = 1;
 			
 			if (labelCount.containsKey(label))
-				count = labelCount.get(label);
+				count = labelCount.get(label) + 1;
 			
 			labelCount.put(label, count);
 		}
@@ -125,9 +343,10 @@ public class InstanceBasedLearner extends SupervisedLearner {
 		double bestLabel = Double.NaN;
 		int bestLabelCount = 0;
 		for (double label : labelCount.keySet()) {
-			if (labelCount.get(label) > bestLabelCount) {
+			int count = labelCount.get(label);
+			if (count > bestLabelCount || (count == bestLabelCount && label < bestLabel)) {
 				bestLabel = label;
-				bestLabelCount = labelCount.get(label);
+				bestLabelCount = count;
 			}
 		}
 		return bestLabel;
@@ -144,7 +363,7 @@ public class InstanceBasedLearner extends SupervisedLearner {
 	private double getWeightedRegressionLabel(ArrayList<Integer> nearestNeighbor, ArrayList<Double> nnDistances) {
 		ArrayList<Double> weights = new ArrayList<Double>(kNearest);
 		for (int i = 0; i < kNearest; i++)
-			weights.add(i, (1 / Math.pow(nnDistances.get(i), 2)));
+			weights.add(i, (1 / (nnDistances.get(i) * nnDistances.get(i))));
 		
 		return this.getRegressionLabel(nearestNeighbor, nnDistances, weights);
 	}
@@ -165,7 +384,7 @@ public class InstanceBasedLearner extends SupervisedLearner {
 	// Change to a better distance metric?
 		private double getNominalDistance(double instance1, double instance2) {
 			if ((instance1 == MISSING) || (instance2 == MISSING))
-				return .75;
+				return MISSING_DISTANCE;
 			if (instance1 == instance2)
 				return 0;
 			else
@@ -174,7 +393,7 @@ public class InstanceBasedLearner extends SupervisedLearner {
 		
 		private double getEuclideanDistance(double instance1, double instance2) {
 			if ((instance1 == MISSING) || (instance2 == MISSING))
-				return .75;
+				return MISSING_DISTANCE;
 			return instance1 - instance2; 
 		}
 }
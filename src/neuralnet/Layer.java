@@ -0,0 +1,110 @@
+package neuralnet;
+
+import toolkit.Gemm;
+import toolkit.Kernels;
+
+/**
+ * One fully connected layer of a NeuralNet. The weights are stored node by
+ * node: the weights into node i are weights[i * stride ...], with the bias
+ * weight last, so a node's incoming weights are contiguous. How the
+ * weights are stepped is up to the network's Optimizer.
+ *
+ * A layer owns only its weights. The activations and errors it reads and
+ * writes belong to the caller, so several threads can run the same layers
+ * with buffers of their own. The batch methods hold one instance per row
+ * and are matrix products; the single instance methods are plain loops,
+ * which are faster than packing a product of one row.
+ */
+class Layer
+{
+	final int inputs;
+	final int nodes;
+	final int stride; // inputs + 1, the distance between the weights of two nodes
+	final Activation activation;
+	final double[] weights;
+
+	Layer(int inputs, int nodes, Activation activation)
+	{
+		this.inputs = inputs;
+		this.nodes = nodes;
+		this.stride = inputs + 1;
+		this.activation = activation;
+		weights = new double[nodes * stride];
+	}
+
+	// Sets out (rows x nodes) to the activations for the instances in (rows x inputs)
+	void forward(double[] in, int rows, double[] out, boolean fast)
+	{
+		Gemm.multiply(false, true, rows, nodes, inputs, 1, in, 0, inputs, weights, 0, stride, 0, out, 0, nodes);
+		for (int r = 0; r < rows; r++)
+		{
+			int row = r * nodes;
+			for (int i = 0; i < nodes; i++)
+				out[row + i] += weights[i * stride + inputs];
+			activation.apply(out, row, nodes, fast);
+		}
+	}
+
+	/*
+	 * Sets out to the activations for one instance. If index is not null,
+	 * the instance is sparse: in holds the values of the nonZeros inputs it
+	 * lists, and every other input is 0.
+	 */
+	void forward(double[] in, int[] index, int nonZeros, double[] out, boolean fast)
+	{
+		for (int i = 0; i < nodes; i++)
+		{
+			int node = i * stride;
+			double sum;
+			if (index != null)
+			{
+				sum = 0;
+				for (int k = 0; k < nonZeros; k++)
+					sum += in[k] * weights[node + index[k]];
+			}
+			else
+				sum = Kernels.dot(in, 0, weights, node, inputs);
+			out[i] = sum + weights[node + inputs];
+		}
+		activation.apply(out, 0, nodes, fast);
+	}
+
+	/*
+	 * Sets inputErrors (rows x inputs) to the errors (rows x nodes) carried
+	 * back through the weights, before the derivative of the layer below
+	 * is applied.
+	 */
+	void backPropagate(double[] errors, int rows, double[] inputErrors)
+	{
+		Gemm.multiply(false, false, rows, inputs, nodes, 1, errors, 0, nodes, weights, 0, stride, 0, inputErrors, 0, inputs);
+	}
+
+	// The single instance backPropagate, adding up each node's weights in turn
+	void backPropagate(double[] errors, double[] inputErrors)
+	{
+		for (int j = 0; j < inputs; j++)
+			inputErrors[j] = 0;
+		for (int i = 0; i < nodes; i++)
+		{
+			int node = i * stride;
+			double error = errors[i];
+			for (int j = 0; j < inputs; j++)
+				inputErrors[j] += error * weights[node + j];
+		}
+	}
+
+	/*
+	 * Sets gradient (laid out like the weights) to the error gradients
+	 * summed over the rows: errors^T in, plus the column sums of the errors
+	 * for the bias weights.
+	 */
+	void gradient(double[] errors, double[] in, int rows, double[] gradient)
+	{
+		Gemm.multiply(true, false, nodes, inputs, rows, 1, errors, 0, nodes, in, 0, inputs, 0, gradient, 0, stride);
+		for (int i = 0; i < nodes; i++)
+			gradient[i * stride + inputs] = 0;
+		for (int r = 0; r < rows; r++)
+			for (int i = 0; i < nodes; i++)
+				gradient[i * stride + inputs] += errors[r * nodes + i];
+	}
+}
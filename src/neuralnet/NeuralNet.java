@@ -1,45 +1,147 @@
 package neuralnet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import toolkit.*;
 
-public class NeuralNet extends SupervisedLearner
+public class NeuralNet extends SupervisedLearner implements IncrementalLearner
 {
+	private static final int MAX_WIDTHS = 4; // hidden layers whose widths can be set one by one
+	// Written where files from before the layer stack begin with the feature count
+	private static final int LAYER_STACK = -1;
+	
 	private Random rand;
-	private ArrayList<ArrayList<Double>> inputWeights;
-	private ArrayList<ArrayList<Double>> hiddenWeights;
-	private ArrayList<ArrayList<Double>> inputWeightsChange;
-	private ArrayList<ArrayList<Double>> hiddenWeightsChange;
+	// The hidden layers followed by the output layer
+	private Layer[] layers;
+	// Steps the weights of layers, keeping its own state for them
+	private Optimizer optimizer;
+	// Activations, errors and gradients of each training thread, reused by every step
+	private Batch[] batches;
+	// The training threads when threads > 1, started by the first epoch that needs them
+	private ExecutorService pool;
+	private int epochs; // run since the weights were drawn, for the learning rate schedule
+	private double rate; // the learning rate of the current epoch
 	
-	private static final double LEARNING_RATE = .05;
-	private static final double MOMENTUM = .5;
-	private static final int WINDOW_WITHOUT_IMPROVEMENT = 30;
+	private double learningRate = .05;
+	private double momentum = .5;
+	private int optimizerKind = 0; // the index in Optimizer.NAMES
+	private double rho = .9;
+	private double beta1 = .9;
+	private double beta2 = .999;
+	private double epsilon = 1e-8;
+	private int schedule = 0;
+	private double decay = .5;
+	private int decayEpochs = 10;
+	private int windowWithoutImprovement = 30;
+	private int hiddenLayers = 1;
+	private int hiddenNodes = 40;
+	private int[] widths = new int[MAX_WIDTHS + 1]; // widths[n] of hidden layer n, 0 for hiddenNodes
+	private Activation hiddenActivation = Activation.SIGMOID;
+	private boolean softmax = false;
+	private boolean fastActivations = false;
+	private int batchSize = 1;
+	private int threads = 1;
+	private boolean hogwild = false;
 	
 	private int numFeatures;
-	private int numHidden;
 	private int numOutputs;
-	private int numInputWeights;
-	private int numHiddenWeights;
 	
 	public NeuralNet(Random rand)
 	{
 		this.rand = rand;
 	}
 	
+	@Override
+	public LearnerConfig getConfig()
+	{
+		LearnerConfig config = new LearnerConfig().set("optimizer", optimizerKind).set("learningRate", learningRate)
+				.set("momentum", momentum).set("rho", rho).set("beta1", beta1).set("beta2", beta2)
+				.set("epsilon", epsilon).set("schedule", schedule).set("decay", decay).set("decayEpochs", decayEpochs)
+				.set("layers", hiddenLayers).set("hidden", hiddenNodes);
+		for (int n = 2; n <= MAX_WIDTHS; n++)
+			config.set("hidden" + n, widths[n]);
+		return config.set("activation", hiddenActivation.ordinal()).set("softmax", softmax ? 1 : 0)
+				.set("fast", fastActivations ? 1 : 0).set("patience", windowWithoutImprovement)
+				.set("batch", batchSize).set("threads", threads).set("hogwild", hogwild ? 1 : 0);
+	}
+	
+	// optimizer picks the rule that steps the weights: 0 for gradient descent with momentum,
+	// 1 for Nesterov momentum, 2 for RMSProp (with rho) and 3 for Adam (with beta1 and beta2);
+	// see Optimizer. RMSProp and Adam step every weight by about the learning rate, so they
+	// usually want a smaller one, such as 0.001 to 0.01. schedule lowers the learning rate as
+	// training goes on: 0 keeps it, 1 multiplies it by decay every decayEpochs epochs, and 2
+	// decays it smoothly by the same factor (learningRate * decay^(epoch / decayEpochs)).
+	// layers is the number of hidden layers, each hidden nodes wide unless hidden2 .. hidden4
+	// set the width of that layer. activation is the function of the hidden nodes: 0 for the
+	// sigmoid, 1 for tanh and 2 for ReLU. softmax=1 gives the output layer a softmax trained
+	// on the cross-entropy instead of sigmoids trained on the squared error. fast=1 uses the
+	// table approximations of the sigmoid and tanh (see Activation).
+	// patience is the number of epochs without a better validation accuracy before training stops.
+	// batch is the number of instances per weight update; 1 updates after every instance.
+	// threads is the number of threads an epoch runs on. Without hogwild, each batch is
+	// split between them, so threads only helps when batch > 1. hogwild=1 lets each
+	// thread train on its own part of the rows instead (see runHogwildEpoch).
+	@Override
+	public void configure(LearnerConfig config) throws Exception
+	{
+		super.configure(config);
+		optimizerKind = config.getInt("optimizer", optimizerKind);
+		learningRate = config.get("learningRate", learningRate);
+		momentum = config.get("momentum", momentum);
+		rho = config.get("rho", rho);
+		beta1 = config.get("beta1", beta1);
+		beta2 = config.get("beta2", beta2);
+		epsilon = config.get("epsilon", epsilon);
+		schedule = config.getInt("schedule", schedule);
+		decay = config.get("decay", decay);
+		decayEpochs = config.getInt("decayEpochs", decayEpochs);
+		hiddenLayers = config.getInt("layers", hiddenLayers);
+		hiddenNodes = config.getInt("hidden", hiddenNodes);
+		for (int n = 2; n <= MAX_WIDTHS; n++)
+			widths[n] = config.getInt("hidden" + n, widths[n]);
+		int activation = config.getInt("activation", hiddenActivation.ordinal());
+		softmax = config.getInt("softmax", softmax ? 1 : 0) != 0;
+		fastActivations = config.getInt("fast", fastActivations ? 1 : 0) != 0;
+		windowWithoutImprovement = config.getInt("patience", windowWithoutImprovement);
+		batchSize = config.getInt("batch", batchSize);
+		int oldThreads = threads;
+		threads = config.getInt("threads", threads);
+		if (threads != oldThreads)
+			shutdownPool();
+		hogwild = config.getInt("hogwild", hogwild ? 1 : 0) != 0;
+		if (optimizerKind < 0 || optimizerKind >= Optimizer.NAMES.length)
+			throw new Exception("The optimizer must be 0 (sgd), 1 (nesterov), 2 (rmsprop) or 3 (adam)");
+		if (schedule < 0 || schedule > 2)
+			throw new Exception("The schedule must be 0 (constant), 1 (step) or 2 (exponential)");
+		if (decayEpochs < 1)
+			throw new Exception("The number of epochs per decay must be at least 1");
+		if (activation < 0 || activation > Activation.RELU.ordinal())
+			throw new Exception("The activation must be 0 (sigmoid), 1 (tanh) or 2 (ReLU)");
+		hiddenActivation = Activation.values()[activation];
+		if (hiddenLayers < 0)
+			throw new Exception("The number of hidden layers cannot be negative");
+		if (batchSize < 1)
+			throw new Exception("The batch size must be at least 1");
+		if (threads < 1)
+			throw new Exception("The number of threads must be at least 1");
+	}
+	
 	@Override
 	public void train(Matrix features, Matrix labels) throws Exception
 	{
 		if (features.rows() != labels.rows())
 			throw new Exception("Number of instances and number of outputs don't match");
 		numFeatures = features.cols();
-		numInputWeights = numFeatures + 1;
-		//numHidden = 2 * numFeatures;
-		numHidden = 40;
-		numHiddenWeights = numHidden + 1;
 		numOutputs = labels.valueCount(0);
-		
 		this.initWeights();
 		features.shuffle(rand, labels);
 				
@@ -54,208 +156,621 @@ public class NeuralNet extends SupervisedLearner
 		Matrix validationLabels = new Matrix(labels, numTestSet, 0,
 				numValidationSet, labels.cols());
 		
+		TrainingListener listener = getTrainingListener();
 		double accuracy = 0;
 		double bssf = 0;
 		int epochsWithoutImprovement = 0;
 		int epochsRun = 0;
-		while (epochsWithoutImprovement < WINDOW_WITHOUT_IMPROVEMENT)
+		int bestEpoch = 0;
+		long trainNanos = 0;
+		long bestNanos = 0;
+		long validationNanos = 0;
+		try
 		{
-			epochsRun++;
-			runEpoch(trainingMatrix, trainingLabels);
-			Matrix confusion = new Matrix();
-			accuracy = this.measureAccuracy(validationMatrix, validationLabels, confusion);
-			if (accuracy > bssf)
+			while (epochsWithoutImprovement < windowWithoutImprovement)
 			{
-				bssf = accuracy;
-				epochsWithoutImprovement = 0;
+				epochsRun++;
+				long startTime = System.nanoTime();
+				runEpoch(trainingMatrix, trainingLabels);
+				long validationTime = System.nanoTime();
+				trainNanos += validationTime - startTime;
+				accuracy = this.measureAccuracy(validationMatrix, validationLabels, null);
+				validationNanos += System.nanoTime() - validationTime;
+				listener.epochEnded(epochsRun, "validation accuracy", accuracy);
+				if (accuracy > bssf)
+				{
+					bssf = accuracy;
+					bestEpoch = epochsRun;
+					bestNanos = trainNanos;
+					epochsWithoutImprovement = 0;
+				}
+				else
+					epochsWithoutImprovement++;
+				trainingMatrix.shuffle(rand, trainingLabels);
 			}
-			else
-				epochsWithoutImprovement++;
-			//System.out.println("Accuracy: " + accuracy);
-			trainingMatrix.shuffle(rand, trainingLabels);
 		}
+		finally
+		{
+			shutdownPool();
+		}
+		listener.phaseTimed("epochs", trainNanos);
+		listener.phaseTimed("validation", validationNanos);
 
 		//Calc MSE
 		double trainSetMSE = this.getMSE(numTestSet, trainingMatrix, trainingLabels);
 		double validationSetMSE = this.getMSE(numValidationSet, validationMatrix, validationLabels);
-		Matrix confusion = new Matrix();
-		double validationSetAccuracy = this.measureAccuracy(validationMatrix, validationLabels, confusion);
+		double validationSetAccuracy = this.measureAccuracy(validationMatrix, validationLabels, null);
 		
-		System.out.println("# Epochs to get best validation acc: " + (epochsRun - WINDOW_WITHOUT_IMPROVEMENT));
-		System.out.println("Training Set MSE: " + trainSetMSE);
-		System.out.println("Validation Set MSE: " + validationSetMSE);
-		System.out.println("Validation Set Accuracy: " + validationSetAccuracy);
+		listener.counter("# Epochs to get best validation acc", bestEpoch);
+		double best = bssf;
+		int bestAt = bestEpoch;
+		int epochsTotal = epochsRun;
+		double bestSeconds = bestNanos / 1e9;
+		listener.message(() -> "Optimizer " + optimizer.name + " reached its best validation accuracy (" + best
+				+ ") in epoch " + bestAt + " of " + epochsTotal + ", after " + bestSeconds + " seconds of training");
+		listener.message(() -> "Training Set MSE: " + trainSetMSE);
+		listener.message(() -> "Validation Set MSE: " + validationSetMSE);
+		listener.message(() -> "Validation Set Accuracy: " + validationSetAccuracy);
+	}
+	
+	/*
+	 * Runs one epoch of backpropagation over the batch, keeping the weights
+	 * and momentum terms from earlier calls. The network is sized from the
+	 * first batch if it has not been trained. There is no validation split,
+	 * so stopping is up to the caller.
+	 */
+	@Override
+	public void partialFit(Matrix features, Matrix labels) throws Exception
+	{
+		if (features.rows() != labels.rows())
+			throw new Exception("Number of instances and number of outputs don't match");
+		if (layers == null)
+		{
+			numFeatures = features.cols();
+			numOutputs = labels.valueCount(0);
+			this.initWeights();
+		}
+		else if (features.cols() != numFeatures || labels.valueCount(0) != numOutputs)
+			throw new Exception("The batch does not match the shape of the network");
+		runEpoch(features, labels);
 	}
 	
-	public void runEpoch(Matrix features, Matrix labels)
+	public void runEpoch(Matrix features, Matrix labels) throws Exception
 	{
+		rate = learningRate(epochs++);
 		int numInstances = features.rows();
-		for (int i = 0; i < numInstances; i++)
-			trainWithInstance(features.row(i), labels.row(i));
+		if (threads == 1 || (batchSize == 1 && !hogwild))
+		{
+			if (batchSize > 1)
+				runBatches(batches(1, batchSize)[0], features, labels, 0, numInstances);
+			else
+				runInstances(batches(1, 1)[0], features, labels, 0, numInstances);
+			return;
+		}
+		if (pool == null)
+			pool = Executors.newFixedThreadPool(threads, r -> {
+				Thread thread = new Thread(r, "NeuralNet training");
+				thread.setDaemon(true);
+				return thread;
+			});
+		if (hogwild)
+			runHogwildEpoch(pool, features, labels);
+		else
+			runSynchronousEpoch(pool, features, labels);
 	}
 	
-	public void trainWithInstance(double[] instance, double[] labels)
+	/*
+	 * Stops the training threads. train does this when it finishes; after
+	 * partialFit they are kept for the next call, and being daemon threads
+	 * they never keep the program from exiting.
+	 */
+	private void shutdownPool()
 	{
-		ArrayList<Double> hiddenValues = new ArrayList<Double>(numHidden);
-		ArrayList<Double> outputValues = new ArrayList<Double>(numOutputs);
-		ArrayList<Double> outputError = new ArrayList<Double>(numOutputs);
-		
-		predictInstance(instance, hiddenValues, outputValues);
-		
-		ArrayList<Double> targetOutputs = new ArrayList<Double>(numOutputs);
-		for (int i = 0; i < numOutputs; i++)
-			targetOutputs.add((double)0);
-		targetOutputs.set((int)labels[0], 1.0);
-		
-		// Backpropagate the error. Place this in separate function?
-		for (int i = 0; i < numOutputs; i++)
+		if (pool != null)
 		{
-			double output = outputValues.get(i);
-			outputError.add((targetOutputs.get(i) - output) * (output * (1 - output)));
-			for (int j = 0; j <= numHidden; j++)
-			{	
-				double nodeValue = 1;
-				if (j != numHidden)
-					nodeValue = hiddenValues.get(j);
-					
-				double delta = (LEARNING_RATE * nodeValue * outputError.get(i))
-						+ (MOMENTUM * this.hiddenWeightsChange.get(j).get(i));
-				double prev = this.hiddenWeights.get(j).get(i);
-				this.hiddenWeights.get(j).set(i, prev+delta);
-				this.hiddenWeightsChange.get(j).set(i, delta);
-			}
+			pool.shutdownNow();
+			pool = null;
 		}
-		
-		for (int i = 0; i <= numHidden; i++)
+	}
+	
+	// Returns the learning rate of the specified epoch (from 0) under the schedule
+	private double learningRate(int epoch)
+	{
+		if (schedule == 1)
+			return learningRate * Math.pow(decay, epoch / decayEpochs);
+		if (schedule == 2)
+			return learningRate * Math.pow(decay, (double)epoch / decayEpochs);
+		return learningRate;
+	}
+	
+	// Returns count training buffers that hold at least size instances each
+	private Batch[] batches(int count, int size)
+	{
+		if (batches == null || batches.length != count || batches[0].size < size)
 		{
-			double output = 1;
-			if (i != numHidden)
-				output = hiddenValues.get(i);
-			double error = 0;
-			for (int j = 0; j < numOutputs; j++)
-				error += outputError.get(j) * this.hiddenWeights.get(i).get(j);
-			error *= (output * (1 - output));
-			
-			for (int j = 0; j <= numFeatures; j++)
+			batches = new Batch[count];
+			for (int i = 0; i < count; i++)
+				batches[i] = new Batch(size, layers);
+		}
+		return batches;
+	}
+	
+	/*
+	 * Trains on the rows [from, to) one instance at a time. Rows of sparse
+	 * data are read as their non-zero (column, value) pairs and never made
+	 * dense.
+	 */
+	private void runInstances(Batch work, Matrix features, Matrix labels, int from, int to)
+	{
+		double[] instance = new double[features.cols()];
+		double[] label = new double[labels.cols()];
+		int[] index = features.isSparse() ? new int[features.cols()] : null;
+		for (int i = from; i < to; i++)
+		{
+			int nonZeros = 0;
+			if (index != null)
+				nonZeros = features.copySparseRow(i, index, instance);
+			else
+				features.copyRow(i, instance);
+			trainWithInstance(work, instance, labels.copyRow(i, label), index, nonZeros);
+		}
+	}
+	
+	/*
+	 * Trains on the rows [from, to) by mini-batch gradient descent: the
+	 * gradients of batchSize instances at a time are summed and then applied
+	 * as one step of the optimizer.
+	 */
+	private void runBatches(Batch work, Matrix features, Matrix labels, int from, int to)
+	{
+		for (int start = from; start < to; start += batchSize)
+		{
+			int end = Math.min(to, start + batchSize);
+			computeGradients(work, features, labels, start, end);
+			applyGradients(work.gradients, end - start);
+		}
+	}
+	
+	/*
+	 * Runs one epoch of mini-batch gradient descent with every batch split
+	 * into one contiguous shard per thread. The threads compute the
+	 * gradients of their shards at the same time, and the shard gradients
+	 * are then added in shard order before the step is taken. The result
+	 * does not depend on how the threads are scheduled, so a seed always
+	 * gives the same network for the same batch and threads (changing either
+	 * changes how the sums are rounded).
+	 */
+	private void runSynchronousEpoch(ExecutorService pool, final Matrix features, final Matrix labels) throws Exception
+	{
+		final int shards = Math.min(threads, batchSize);
+		final Batch[] work = batches(shards, (batchSize + shards - 1) / shards);
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(shards);
+		int numInstances = features.rows();
+		for (int from = 0; from < numInstances; from += batchSize)
+		{
+			int rows = Math.min(numInstances - from, batchSize);
+			tasks.clear();
+			for (int i = 0; i < shards; i++)
 			{
-				double nodeValue = 1;
-				if (j != numFeatures)
-					nodeValue = instance[j];
-				double delta = (LEARNING_RATE * nodeValue * error) +
-						(MOMENTUM * this.inputWeightsChange.get(j).get(i));
-				double prev = this.inputWeights.get(j).get(i);
-				this.inputWeights.get(j).set(i, prev+delta);
-				this.inputWeightsChange.get(j).set(i, delta);			
+				final Batch shard = work[i];
+				final int start = from + rows * i / shards;
+				final int end = from + rows * (i + 1) / shards;
+				tasks.add(() -> {
+					computeGradients(shard, features, labels, start, end);
+					return null;
+				});
 			}
+			runTasks(pool, tasks);
+			for (int i = 1; i < shards; i++)
+				for (int l = 0; l < layers.length; l++)
+					add(work[i].gradients[l], work[0].gradients[l]);
+			applyGradients(work[0].gradients, rows);
 		}
 	}
 	
-	private void predictInstance(double[] instance, ArrayList<Double> hiddenValues,
-			ArrayList<Double> outputValues)
+	/*
+	 * Runs one epoch with the rows cut into one contiguous part per thread.
+	 * Each thread trains on its part as if alone (per instance, or in
+	 * mini-batches), reading and updating the shared weights without any
+	 * locking, as in Hogwild! (Niu et al., 2011). Updates can be lost or
+	 * computed from weights another thread is changing, which sparse or
+	 * small updates tolerate well, but the result depends on the timing of
+	 * the threads and is not repeatable.
+	 */
+	private void runHogwildEpoch(ExecutorService pool, final Matrix features, final Matrix labels) throws Exception
 	{
-		for (int i = 0; i < numHidden; i++)
+		final Batch[] work = batches(threads, batchSize);
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threads);
+		int numInstances = features.rows();
+		for (int i = 0; i < threads; i++)
 		{
-			double sum = 0;
-			for (int j = 0; j <= numFeatures; j++)
-			{
-				if (j == numFeatures)
-					sum += 1 * inputWeights.get(j).get(i);
+			final Batch part = work[i];
+			final int from = (int)((long)numInstances * i / threads);
+			final int to = (int)((long)numInstances * (i + 1) / threads);
+			tasks.add(() -> {
+				if (batchSize > 1)
+					runBatches(part, features, labels, from, to);
 				else
-					sum += instance[j] * inputWeights.get(j).get(i);
+					runInstances(part, features, labels, from, to);
+				return null;
+			});
+		}
+		runTasks(pool, tasks);
+	}
+	
+	// Runs the tasks on the pool and waits for all of them, rethrowing the first failure
+	private static void runTasks(ExecutorService pool, List<Callable<Void>> tasks) throws Exception
+	{
+		try
+		{
+			for (Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+	}
+	
+	// Adds the elements of from to to
+	private static void add(double[] from, double[] to)
+	{
+		for (int i = 0; i < to.length; i++)
+			to[i] += from[i];
+	}
+	
+	/*
+	 * Sums the error gradients of the rows [from, to) into the gradient
+	 * arrays of batch, pointing the way that lowers the error. The forward
+	 * and backward passes over the whole batch are matrix products: with A
+	 * the activations of a layer (one row per instance), W its weights and
+	 * E its errors, the next layer's activations are f(A W^T), the errors
+	 * of the layer below are (E W) f'(A), and the gradient of W is E^T A,
+	 * plus the column sums of E for the bias weights.
+	 */
+	private void computeGradients(Batch batch, Matrix features, Matrix labels, int from, int to)
+	{
+		int rows = to - from;
+		double[][] values = batch.values;
+		double[][] errors = batch.errors;
+		for (int r = 0; r < rows; r++)
+		{
+			features.copyRow(from + r, values[0], r * numFeatures);
+			batch.targets[r] = (int)labels.get(from + r, 0);
+		}
+		for (int l = 0; l < layers.length; l++)
+			layers[l].forward(values[l], rows, values[l + 1], fastActivations);
+		
+		int last = layers.length - 1;
+		double[] outputs = values[last + 1];
+		for (int r = 0; r < rows; r++)
+			for (int i = 0; i < numOutputs; i++)
+				errors[last][r * numOutputs + i] = (i == batch.targets[r] ? 1 : 0) - outputs[r * numOutputs + i];
+		layers[last].activation.multiplyDerivative(outputs, errors[last], rows * numOutputs);
+		for (int l = last; l >= 0; l--)
+		{
+			if (l > 0)
+			{
+				layers[l].backPropagate(errors[l], rows, errors[l - 1]);
+				layers[l - 1].activation.multiplyDerivative(values[l], errors[l - 1], rows * layers[l - 1].nodes);
 			}
-			double output = 1 / (1 + Math.pow(Math.E, (0 - sum)));
-			hiddenValues.add(output);
+			layers[l].gradient(errors[l], values[l], rows, batch.gradients[l]);
 		}
+	}
+	
+	// Moves the weights along gradients summed over rows instances
+	private void applyGradients(double[][] gradients, int rows)
+	{
+		optimizer.nextStep();
+		for (int l = layers.length - 1; l >= 0; l--)
+			optimizer.step(l, layers[l].weights, gradients[l], rows, rate);
+	}
+	
+	public void trainWithInstance(double[] instance, double[] labels)
+	{
+		trainWithInstance(batches(1, 1)[0], instance, labels, null, 0);
+	}
+	
+	/*
+	 * If index is not null, the instance is sparse: instance holds the values
+	 * of the nonZeros features it lists, sorted by column, and every other
+	 * feature is 0. The forward pass then reads only the non-zero features.
+	 * So does the first layer's step with sgd and momentum 0; with momentum,
+	 * or any other optimizer, every first layer weight still moves, so that
+	 * step stays O(features) per hidden node. Each layer is updated before
+	 * the errors are carried back through it, from the output layer down.
+	 * Only the preallocated buffers in work are written, so a step
+	 * allocates nothing.
+	 */
+	private void trainWithInstance(Batch work, double[] instance, double[] labels, int[] index, int nonZeros)
+	{
+		double[][] values = work.values;
+		double[][] errors = work.errors;
+		predictInstance(instance, index, nonZeros, values);
+		int target = (int)labels[0];
 		
+		int last = layers.length - 1;
+		double[] outputs = values[last + 1];
 		for (int i = 0; i < numOutputs; i++)
+			errors[last][i] = (i == target ? 1 : 0) - outputs[i];
+		layers[last].activation.multiplyDerivative(outputs, errors[last], numOutputs);
+		optimizer.nextStep();
+		for (int l = last; l >= 0; l--)
 		{
-			double sum = 0;
-			for (int j = 0; j <= numHidden; j++)
+			Layer layer = layers[l];
+			if (l == 0)
 			{
-				if (j == numHidden)
-					sum += 1 * hiddenWeights.get(j).get(i);
-				else
-					sum += hiddenValues.get(j) * hiddenWeights.get(j).get(i);
+				optimizer.step(l, layer, instance, index, nonZeros, errors[l], work.gradients[l], rate);
+				break;
 			}
-			double output = 1 / (1 + Math.pow(Math.E, (0 - sum)));
-			outputValues.add(i, output);
+			optimizer.step(l, layer, values[l], null, 0, errors[l], work.gradients[l], rate);
+			layer.backPropagate(errors[l], errors[l - 1]);
+			layers[l - 1].activation.multiplyDerivative(values[l], errors[l - 1], layer.inputs);
 		}
 	}
 	
+	/*
+	 * Fills values[1 ..] with the activations of each layer for instance
+	 * (values[0] is not used). If index is not null, instance holds only
+	 * the values of the nonZeros features it lists.
+	 */
+	private void predictInstance(double[] instance, int[] index, int nonZeros, double[][] values)
+	{
+		layers[0].forward(instance, index, nonZeros, values[1], fastActivations);
+		for (int l = 1; l < layers.length; l++)
+			layers[l].forward(values[l], null, 0, values[l + 1], fastActivations);
+	}
+	
+	// Returns a buffer for the activations of each layer of one instance, for predictInstance
+	private double[][] newValues()
+	{
+		double[][] values = new double[layers.length + 1][];
+		for (int l = 0; l < layers.length; l++)
+			values[l + 1] = new double[layers[l].nodes];
+		return values;
+	}
+	
 	@Override
 	public void predict(double[] features, double[] labels) throws Exception
 	{
-		ArrayList<Double> hiddenValues = new ArrayList<Double>(numHidden);
-		ArrayList<Double> outputValues = new ArrayList<Double>(numOutputs);
-		
-		predictInstance(features, hiddenValues, outputValues);
-
+		double[][] values = newValues();
+		predictInstance(features, null, 0, values);
+		labels[0] = largestOutput(values[layers.length]);
+	}
+	
+	// Returns the index of the largest output, or -1 if every output is 0
+	private int largestOutput(double[] outputValues)
+	{
 		double largestOutput = 0;
 		int largestOutputIndex = -1;
 		for (int i = 0; i < numOutputs; i++)
 		{
-			//System.out.print(outputValues.get(i) + " ");
-			if (outputValues.get(i) > largestOutput)
+			if (outputValues[i] > largestOutput)
 			{
-				largestOutput = outputValues.get(i);
+				largestOutput = outputValues[i];
 				largestOutputIndex = i;
 			}
 		}
-		//System.out.println("Largest Index: " + largestOutputIndex);
-		labels[0] = largestOutputIndex;
+		return largestOutputIndex;
 	}
 		
-	private void initWeights()
+	/*
+	 * The scores are the output activations scaled to sum to 1 (as softmax
+	 * outputs already do), so the predicted class is the one with the
+	 * largest activation.
+	 */
+	@Override
+	public void predictScores(double[] features, double[] scores) throws Exception
+	{
+		double[][] values = newValues();
+		predictInstance(features, null, 0, values);
+		double[] outputValues = values[layers.length];
+		
+		double sum = 0;
+		for (int i = 0; i < numOutputs; i++)
+			sum += outputValues[i];
+		for (int i = 0; i < numOutputs && i < scores.length; i++)
+			scores[i] = outputValues[i] / sum;
+	}
+	
+	@Override
+	public boolean isPredictThreadSafe()
 	{
-		inputWeights = new ArrayList<ArrayList<Double>>(numInputWeights);
-		inputWeightsChange = new ArrayList<ArrayList<Double>>(numInputWeights);
-		for (int i = 0; i < numInputWeights; i++)
+		return true;
+	}
+	
+	// Predicts the rows with buffers private to this range, so ranges can run at once
+	@Override
+	protected void predictRows(Matrix features, int from, int to, double[] out, int outPos)
+	{
+		double[] instance = new double[numFeatures];
+		double[][] values = newValues();
+		for (int r = from; r < to; r++)
 		{
-			inputWeights.add(new ArrayList<Double>(numHiddenWeights));
-			inputWeightsChange.add(new ArrayList<Double>(numHiddenWeights));
-			for (int j = 0; j < numHiddenWeights; j++)
-			{
-				inputWeights.get(i).add(rand.nextGaussian());//% (1/(Math.sqrt((int)numFeatures))));
-				inputWeightsChange.get(i).add((double)0);
-			}
+			predictInstance(features.copyRow(r, instance), null, 0, values);
+			out[outPos + r - from] = largestOutput(values[layers.length]);
 		}
-		
-		hiddenWeights = new ArrayList<ArrayList<Double>>(numHiddenWeights);
-		hiddenWeightsChange = new ArrayList<ArrayList<Double>>(numHiddenWeights);
-		for (int i = 0; i < numHiddenWeights; i++)
+	}
+	
+	/*
+	 * Builds the layers and draws their initial weights. The weights of
+	 * each layer are drawn input by input and node by node (plus one unused
+	 * draw per input for each hidden layer), which is the order of the
+	 * lists that held them when there was a single hidden layer, so a seed
+	 * still gives the same network as it did then.
+	 */
+	private void initWeights() throws Exception
+	{
+		int[] sizes = new int[hiddenLayers + 1];
+		for (int n = 1; n <= hiddenLayers; n++)
+			sizes[n - 1] = n < widths.length && widths[n] > 0 ? widths[n] : hiddenNodes;
+		sizes[hiddenLayers] = numOutputs;
+		buildLayers(sizes, hiddenActivation, softmax ? Activation.SOFTMAX : Activation.SIGMOID);
+		for (int l = 0; l < layers.length; l++)
 		{
-			hiddenWeights.add(new ArrayList<Double>(numOutputs));
-			hiddenWeightsChange.add(new ArrayList<Double>(numOutputs));
-			for (int j = 0; j < numOutputs; j++)
+			Layer layer = layers[l];
+			int draws = l == layers.length - 1 ? layer.nodes : layer.nodes + 1;
+			double scale = layer.activation.initScale(layer.inputs);
+			for (int i = 0; i <= layer.inputs; i++)
 			{
-				hiddenWeights.get(i).add(rand.nextGaussian());// % (1/(Math.sqrt((int)numFeatures))));
-				hiddenWeightsChange.get(i).add((double)0);	
+				for (int j = 0; j < draws; j++)
+				{
+					double weight = rand.nextGaussian() * scale;
+					if (j < layer.nodes)
+						layer.weights[j * layer.stride + i] = weight;
+				}
 			}
-		}		
+		}
+	}
+	
+	// Creates zeroed layers of the specified widths (the last is the output layer) on numFeatures
+	// inputs, with a new optimizer for them
+	private void buildLayers(int[] sizes, Activation hidden, Activation output) throws Exception
+	{
+		layers = new Layer[sizes.length];
+		int inputs = numFeatures;
+		for (int l = 0; l < sizes.length; l++)
+		{
+			layers[l] = new Layer(inputs, sizes[l], l == sizes.length - 1 ? output : hidden);
+			inputs = sizes[l];
+		}
+		optimizer = Optimizer.create(optimizerKind, momentum, rho, beta1, beta2, epsilon);
+		optimizer.reset(layers);
+		batches = null;
+		epochs = 0;
+		rate = learningRate;
+	}
+	
+	/*
+	 * Saves LAYER_STACK and the number of layers, then the inputs, nodes,
+	 * activation and node-major weights of each layer.
+	 */
+	@Override
+	protected void writeModel(DataOutputStream out) throws Exception
+	{
+		out.writeInt(LAYER_STACK);
+		out.writeInt(layers.length);
+		for (Layer layer : layers)
+		{
+			out.writeInt(layer.inputs);
+			out.writeInt(layer.nodes);
+			out.writeInt(layer.activation.ordinal());
+			ModelIO.writeDoubles(out, layer.weights);
+		}
+	}
+	
+	/*
+	 * Restores the layers saved by writeModel with the momentum terms
+	 * zeroed. Files from before the layer stack hold the feature, hidden
+	 * and output counts and then the two sigmoid layers input by input,
+	 * with one column per node plus one; those still load.
+	 */
+	@Override
+	protected void readModel(DataInputStream in) throws Exception
+	{
+		int tag = in.readInt();
+		if (tag != LAYER_STACK)
+		{
+			numFeatures = tag;
+			int numHidden = in.readInt();
+			numOutputs = in.readInt();
+			buildLayers(new int[] { numHidden, numOutputs }, Activation.SIGMOID, Activation.SIGMOID);
+			fromInputMajor(ModelIO.readDoubles(in), layers[0], numHidden + 1);
+			fromInputMajor(ModelIO.readDoubles(in), layers[1], numOutputs);
+			return;
+		}
+		int count = in.readInt();
+		int[] sizes = new int[count];
+		Activation[] activations = new Activation[count];
+		double[][] weights = new double[count][];
+		for (int l = 0; l < count; l++)
+		{
+			int inputs = in.readInt();
+			sizes[l] = in.readInt();
+			activations[l] = Activation.values()[in.readInt()];
+			weights[l] = ModelIO.readDoubles(in);
+			if (l == 0)
+				numFeatures = inputs;
+			else if (inputs != sizes[l - 1])
+				throw new Exception("Layer " + l + " has " + inputs + " inputs, expected " + sizes[l - 1]);
+		}
+		numOutputs = sizes[count - 1];
+		buildLayers(sizes, activations[0], activations[count - 1]);
+		for (int l = 0; l < count; l++)
+		{
+			if (weights[l].length != layers[l].weights.length)
+				throw new Exception("Expected " + layers[l].weights.length + " weights, found " + weights[l].length);
+			if (activations[l] != layers[l].activation)
+				throw new Exception("The hidden layers must share one activation");
+			System.arraycopy(weights[l], 0, layers[l].weights, 0, weights[l].length);
+		}
+	}
+	
+	// Copies weights laid out input by input, cols values per input, into layer
+	private static void fromInputMajor(double[] values, Layer layer, int cols) throws Exception
+	{
+		if (values.length != layer.stride * cols)
+			throw new Exception("Expected " + (layer.stride * cols) + " weights, found " + values.length);
+		for (int i = 0; i < layer.nodes; i++)
+			for (int j = 0; j < layer.stride; j++)
+				layer.weights[i * layer.stride + j] = values[j * cols + i];
 	}
 	
 	public double getMSE(int numInSet, Matrix set, Matrix labels)
 	{
 		double sum = 0;
+		double[] instance = new double[set.cols()];
+		double[][] values = newValues();
+		double[] outputValues = values[layers.length];
 		for (int i = 0; i < numInSet; i++)
 		{
-			ArrayList<Double> hiddenValues = new ArrayList<Double>(numHidden);
-			ArrayList<Double> outputValues = new ArrayList<Double>(numOutputs);
-			this.predictInstance(set.row(i), hiddenValues, outputValues);
-			
-			ArrayList<Double> targetOutputs = new ArrayList<Double>(numOutputs);
-			for (int j = 0; j < numOutputs; j++)
-				targetOutputs.add((double)0);
-			targetOutputs.set((int)labels.row(i)[0], 1.0);
+			this.predictInstance(set.copyRow(i, instance), null, 0, values);
+			int target = (int)labels.get(i, 0);
 			
 			double distance = 0;
 			// Pythagorean theorem in 3 dimensions: distance = sqrt(x^2 + y^2 + z^2)
 			for (int j = 0; j < numOutputs; j++)
-				distance += Math.pow((targetOutputs.get(j) - outputValues.get(j)), 2);
+			{
+				double error = (j == target ? 1 : 0) - outputValues[j];
+				distance += error * error;
+			}
 			//Would take sqrt to get true distance, but for MSE we square it again anyway.
 			sum += distance;
 		}
 		sum /= (numInSet - 2);
 		return sum;
 	}
+	
+	/**
+	 * The buffers of a mini-batch of up to size instances, one row per
+	 * instance. values[0] holds the instances and values[l + 1] the
+	 * activations of layer l, errors[l] the errors of layer l, and
+	 * gradients[l] the summed gradient of its weights, in their layout.
+	 */
+	private static class Batch
+	{
+		final int size;
+		final double[][] values;
+		final double[][] errors;
+		final double[][] gradients;
+		final int[] targets;
+		
+		Batch(int size, Layer[] layers)
+		{
+			this.size = size;
+			values = new double[layers.length + 1][];
+			errors = new double[layers.length][];
+			gradients = new double[layers.length][];
+			values[0] = new double[size * layers[0].inputs];
+			for (int l = 0; l < layers.length; l++)
+			{
+				values[l + 1] = new double[size * layers[l].nodes];
+				errors[l] = new double[size * layers[l].nodes];
+				gradients[l] = new double[layers[l].weights.length];
+			}
+			targets = new int[size];
+		}
+	}
 }
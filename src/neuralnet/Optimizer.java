@@ -0,0 +1,318 @@
+package neuralnet;
+
+/**
+ * The rule a NeuralNet uses to move its weights along the error gradient.
+ * The gradients given to step point the way that lowers the error and are
+ * summed over the instances of the step. Whatever an optimizer keeps
+ * between steps (velocities, running averages of the gradient) is held in
+ * one flat array per layer, laid out like that layer's weights.
+ *
+ * A training step calls nextStep once and then step for every layer. With
+ * hogwild training several threads step the same optimizer at once, so its
+ * state is updated without locking, just like the weights.
+ */
+abstract class Optimizer
+{
+	static final String[] NAMES = { "sgd", "nesterov", "rmsprop", "adam" };
+
+	final String name;
+
+	Optimizer(String name)
+	{
+		this.name = name;
+	}
+
+	/*
+	 * Returns the optimizer numbered as in NAMES. momentum is used by sgd
+	 * and nesterov, rho (the decay of the average squared gradient) by
+	 * rmsprop, and beta1 and beta2 (the decays of the average gradient and
+	 * squared gradient) by adam. epsilon keeps the rmsprop and adam steps
+	 * finite where the gradient has been 0.
+	 */
+	static Optimizer create(int kind, double momentum, double rho, double beta1, double beta2, double epsilon)
+			throws Exception
+	{
+		switch (kind)
+		{
+		case 0: return new Sgd(momentum);
+		case 1: return new Nesterov(momentum);
+		case 2: return new RmsProp(rho, epsilon);
+		case 3: return new Adam(beta1, beta2, epsilon);
+		default: throw new Exception("The optimizer must be 0 (sgd), 1 (nesterov), 2 (rmsprop) or 3 (adam)");
+		}
+	}
+
+	// Allocates zeroed state for the weights of layers
+	abstract void reset(Layer[] layers);
+
+	// Starts a training step
+	void nextStep()
+	{
+	}
+
+	// Moves the weights of layer l along gradient, summed over rows instances, at the learning rate
+	abstract void step(int l, double[] weights, double[] gradient, int rows, double rate);
+
+	/*
+	 * Moves the weights of layer l along the gradient of one instance, which
+	 * has the inputs in and the node errors errors. If index is not null,
+	 * in holds only the values of the nonZeros inputs it lists, sorted by
+	 * input, and every other input is 0. The gradient is built in the buffer
+	 * given and stepped along as usual, so every weight is visited even for
+	 * a sparse instance: the state of these optimizers moves a weight whose
+	 * gradient is 0.
+	 */
+	void step(int l, Layer layer, double[] in, int[] index, int nonZeros, double[] errors, double[] gradient, double rate)
+	{
+		for (int i = 0; i < layer.nodes; i++)
+		{
+			int node = i * layer.stride;
+			double error = errors[i];
+			if (index == null)
+			{
+				for (int j = 0; j < layer.inputs; j++)
+					gradient[node + j] = error * in[j];
+			}
+			else
+			{
+				for (int j = 0; j < layer.inputs; j++)
+					gradient[node + j] = 0;
+				for (int k = 0; k < nonZeros; k++)
+					gradient[node + index[k]] = error * in[k];
+			}
+			gradient[node + layer.inputs] = error;
+		}
+		step(l, layer.weights, gradient, 1, rate);
+	}
+
+	// Returns one zeroed array per layer, laid out like its weights
+	static double[][] newState(Layer[] layers)
+	{
+		double[][] state = new double[layers.length][];
+		for (int l = 0; l < layers.length; l++)
+			state[l] = new double[layers[l].weights.length];
+		return state;
+	}
+
+	/**
+	 * Gradient descent with classic momentum: each step is the learning rate
+	 * times the average gradient plus momentum times the last step.
+	 */
+	static class Sgd extends Optimizer
+	{
+		private final double momentum;
+		private double[][] change;
+
+		Sgd(double momentum)
+		{
+			super("sgd");
+			this.momentum = momentum;
+		}
+
+		void reset(Layer[] layers)
+		{
+			change = newState(layers);
+		}
+
+		void step(int l, double[] weights, double[] gradient, int rows, double rate)
+		{
+			double[] change = this.change[l];
+			double step = rate / rows;
+			for (int i = 0; i < weights.length; i++)
+			{
+				double delta = (step * gradient[i]) + (momentum * change[i]);
+				weights[i] += delta;
+				change[i] = delta;
+			}
+		}
+
+		/*
+		 * The same step as building the gradient, in one pass over the
+		 * weights. A weight whose input is 0 moves only by its momentum, so
+		 * for a sparse instance with momentum 0 just the weights of the
+		 * non-zero inputs and the biases are visited. With momentum every
+		 * weight still moves, and the step costs O(inputs) per node.
+		 */
+		void step(int l, Layer layer, double[] in, int[] index, int nonZeros, double[] errors, double[] gradient, double rate)
+		{
+			double[] weights = layer.weights;
+			double[] change = this.change[l];
+			for (int i = 0; i < layer.nodes; i++)
+			{
+				int node = i * layer.stride;
+				double step = rate * errors[i];
+				if (index == null)
+				{
+					for (int j = 0; j < layer.inputs; j++)
+					{
+						double delta = (step * in[j]) + (momentum * change[node + j]);
+						weights[node + j] += delta;
+						change[node + j] = delta;
+					}
+				}
+				else if (momentum == 0)
+				{
+					for (int k = 0; k < nonZeros; k++)
+					{
+						double delta = step * in[k];
+						weights[node + index[k]] += delta;
+						change[node + index[k]] = delta;
+					}
+				}
+				else
+				{
+					// The runs of zero inputs between the sorted non-zeros move by momentum alone
+					int j = 0;
+					for (int k = 0; k <= nonZeros; k++)
+					{
+						int end = k < nonZeros ? index[k] : layer.inputs;
+						for (; j < end; j++)
+						{
+							double delta = momentum * change[node + j];
+							weights[node + j] += delta;
+							change[node + j] = delta;
+						}
+						if (k < nonZeros)
+						{
+							double delta = (step * in[k]) + (momentum * change[node + j]);
+							weights[node + j] += delta;
+							change[node + j] = delta;
+							j++;
+						}
+					}
+				}
+				double delta = step + (momentum * change[node + layer.inputs]);
+				weights[node + layer.inputs] += delta;
+				change[node + layer.inputs] = delta;
+			}
+		}
+	}
+
+	/**
+	 * Nesterov's accelerated gradient, in the form of Sutskever et al.
+	 * (2013) that only needs the gradient at the current weights: the
+	 * velocity v becomes momentum * v + rate * g, and the weights move by
+	 * momentum * v + rate * g, looking one step of momentum ahead.
+	 */
+	static class Nesterov extends Optimizer
+	{
+		private final double momentum;
+		private double[][] velocity;
+
+		Nesterov(double momentum)
+		{
+			super("nesterov");
+			this.momentum = momentum;
+		}
+
+		void reset(Layer[] layers)
+		{
+			velocity = newState(layers);
+		}
+
+		void step(int l, double[] weights, double[] gradient, int rows, double rate)
+		{
+			double[] velocity = this.velocity[l];
+			double step = rate / rows;
+			for (int i = 0; i < weights.length; i++)
+			{
+				double g = step * gradient[i];
+				double v = momentum * velocity[i] + g;
+				velocity[i] = v;
+				weights[i] += momentum * v + g;
+			}
+		}
+	}
+
+	/**
+	 * RMSProp: each weight's step is divided by the root of a running
+	 * average of its squared gradient, so every weight moves at about the
+	 * learning rate whatever the scale of its gradient.
+	 */
+	static class RmsProp extends Optimizer
+	{
+		private final double rho;
+		private final double epsilon;
+		private double[][] meanSquare;
+
+		RmsProp(double rho, double epsilon)
+		{
+			super("rmsprop");
+			this.rho = rho;
+			this.epsilon = epsilon;
+		}
+
+		void reset(Layer[] layers)
+		{
+			meanSquare = newState(layers);
+		}
+
+		void step(int l, double[] weights, double[] gradient, int rows, double rate)
+		{
+			double[] meanSquare = this.meanSquare[l];
+			for (int i = 0; i < weights.length; i++)
+			{
+				double g = gradient[i] / rows;
+				double s = rho * meanSquare[i] + (1 - rho) * g * g;
+				meanSquare[i] = s;
+				weights[i] += rate * g / (Math.sqrt(s) + epsilon);
+			}
+		}
+	}
+
+	/**
+	 * Adam (Kingma and Ba, 2015): RMSProp on a running average of the
+	 * gradient rather than the gradient itself, with both averages
+	 * corrected for starting at 0.
+	 */
+	static class Adam extends Optimizer
+	{
+		private final double beta1;
+		private final double beta2;
+		private final double epsilon;
+		private double[][] mean;
+		private double[][] meanSquare;
+		private double beta1Power; // beta1 and beta2 to the power of the number of steps
+		private double beta2Power;
+
+		Adam(double beta1, double beta2, double epsilon)
+		{
+			super("adam");
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.epsilon = epsilon;
+		}
+
+		void reset(Layer[] layers)
+		{
+			mean = newState(layers);
+			meanSquare = newState(layers);
+			beta1Power = 1;
+			beta2Power = 1;
+		}
+
+		void nextStep()
+		{
+			beta1Power *= beta1;
+			beta2Power *= beta2;
+		}
+
+		void step(int l, double[] weights, double[] gradient, int rows, double rate)
+		{
+			double[] mean = this.mean[l];
+			double[] meanSquare = this.meanSquare[l];
+			// The bias corrections of both averages, folded into the step
+			double step = rate * Math.sqrt(1 - beta2Power) / (1 - beta1Power);
+			double scaledEpsilon = epsilon * Math.sqrt(1 - beta2Power);
+			for (int i = 0; i < weights.length; i++)
+			{
+				double g = gradient[i] / rows;
+				double m = beta1 * mean[i] + (1 - beta1) * g;
+				double s = beta2 * meanSquare[i] + (1 - beta2) * g * g;
+				mean[i] = m;
+				meanSquare[i] = s;
+				weights[i] += step * m / (Math.sqrt(s) + scaledEpsilon);
+			}
+		}
+	}
+}
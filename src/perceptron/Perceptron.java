@@ -1,16 +1,17 @@
 package perceptron;
 
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.Random;
 
 import toolkit.*;
 
-public class Perceptron extends SupervisedLearner {
+public class Perceptron extends SupervisedLearner implements IncrementalLearner {
 	private Random rand;
-	private ArrayList<Double> weights;
-	private static final double LEARNING_RATE = .1;
+	private double[] weights; // one per feature, then the bias weight
+	private double learningRate = .1;
 	private static final double THRESHOLD = 0;
-	private static final int EPOCHS_WITHOUT_IMPROVEMENT = 10;
+	private int epochsWithoutImprovementLimit = 10;
 
 	public Perceptron(Random rand) {
 		this.rand = rand;
@@ -21,21 +22,23 @@ public class Perceptron extends SupervisedLearner {
 	{
 		if (features.rows() != labels.rows())
 			throw new Exception("Number of instances and number of outputs don't match");
+		TrainingListener listener = getTrainingListener();
 		int numFeatures = features.cols();
 		int numWeights = numFeatures + 1;
 		
-		weights = new ArrayList<Double>(numWeights);
+		weights = new double[numWeights];
 		initWeights(numWeights);
 		
 		double bestPercentageCorrect = 0;
 		int epochsWithoutImprovement = 0;
 		int numEpochsRun = 0;
 		
-		while (epochsWithoutImprovement < EPOCHS_WITHOUT_IMPROVEMENT)
+		long startTime = System.nanoTime();
+		while (epochsWithoutImprovement < epochsWithoutImprovementLimit)
 		{
 			numEpochsRun++;
 			double percentageCorrect = runEpoch(features, labels);
-			System.out.println((1 - percentageCorrect));
+			listener.epochEnded(numEpochsRun, "error", 1 - percentageCorrect);
 			if (percentageCorrect > bestPercentageCorrect)
 			{
 				bestPercentageCorrect = percentageCorrect;
@@ -44,9 +47,56 @@ public class Perceptron extends SupervisedLearner {
 			else
 				epochsWithoutImprovement++;
 		}
-		for (int i = 0; i < weights.size(); i++)
-			System.out.println("Weight " + i + ": " + weights.get(i));
-		System.out.println("Number of epochs run: " + numEpochsRun);
+		listener.phaseTimed("epochs", System.nanoTime() - startTime);
+		listener.message(() -> {
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < weights.length; i++)
+				b.append(i == 0 ? "" : "\n").append("Weight ").append(i).append(": ").append(weights[i]);
+			return b.toString();
+		});
+		listener.counter("Number of epochs run", numEpochsRun);
+	}
+
+	/*
+	 * Runs one epoch over the batch, starting from the current weights. The
+	 * weights are initialized on the first call if the perceptron has not
+	 * been trained.
+	 */
+	@Override
+	public void partialFit(Matrix features, Matrix labels) throws Exception
+	{
+		if (features.rows() != labels.rows())
+			throw new Exception("Number of instances and number of outputs don't match");
+		if (weights == null)
+		{
+			weights = new double[features.cols() + 1];
+			initWeights(weights.length);
+		}
+		else if (weights.length != features.cols() + 1)
+			throw new Exception("Expected " + (weights.length - 1) + " features, found " + features.cols());
+		runEpoch(features, labels);
+	}
+
+	@Override
+	public LearnerConfig getConfig()
+	{
+		return new LearnerConfig().set("learningRate", learningRate).set("patience", epochsWithoutImprovementLimit);
+	}
+	
+	// patience is the number of epochs without improvement before training stops
+	@Override
+	public void configure(LearnerConfig config) throws Exception
+	{
+		super.configure(config);
+		learningRate = config.get("learningRate", learningRate);
+		epochsWithoutImprovementLimit = config.getInt("patience", epochsWithoutImprovementLimit);
+	}
+	
+	// Prediction only reads the weights
+	@Override
+	public boolean isPredictThreadSafe()
+	{
+		return true;
 	}
 
 	@Override
@@ -60,10 +110,19 @@ public class Perceptron extends SupervisedLearner {
 	{
 		int numInstances = features.rows();
 		int correctCount = 0;
+		double[] instance = new double[features.cols()];
+		int[] index = new int[features.cols()];
 
 		for (int i = 0; i < numInstances; i++)
 		{
-			boolean predictionCorrect = trainWithInstance(features.row(i), labels.get(i, 0));
+			boolean predictionCorrect;
+			if (features.isSparse())
+			{
+				int nonZeros = features.copySparseRow(i, index, instance);
+				predictionCorrect = trainWithSparseInstance(index, instance, nonZeros, labels.get(i, 0));
+			}
+			else
+				predictionCorrect = trainWithInstance(features.copyRow(i, instance), labels.get(i, 0));
 			if (predictionCorrect)
 				correctCount++;
 		}
@@ -91,18 +150,78 @@ public class Perceptron extends SupervisedLearner {
 		return (predictionCorrect = false);
 	}
 	
-	private double predictInstance(double[] instance)
+	/*
+	 * Same as trainWithInstance for an instance given as its non-zero
+	 * features. Zero features neither contribute to the output nor change
+	 * their weights, so only the non-zeros are visited.
+	 */
+	private boolean trainWithSparseInstance(int[] index, double[] value, int nonZeros,
+			double targetOutput) throws Exception
 	{
-		int index = 0;
+		if ((targetOutput != 1) && (targetOutput != 0))
+			throw new Exception("Labels must be a 0 or 1");
+		
 		double result = 0;
+		for (int k = 0; k < nonZeros; k++)
+			result += value[k] * weights[index[k]];
+		// Bias weight, multiplied by 1
+		int bias = weights.length - 1;
+		result += weights[bias];
+		double output = 0;
+		if (result > THRESHOLD)
+			output = 1;
+		
+		if (output == targetOutput)
+			return true;
 		
-		for (double attribute : instance)
+		double change = (targetOutput - output) * learningRate;
+		for (int k = 0; k < nonZeros; k++)
+			weights[index[k]] += change * value[k];
+		weights[bias] += change;
+		return false;
+	}
+	
+	/*
+	 * Scores the two classes with the logistic function of the net input, so
+	 * class 1 scores higher exactly when the perceptron predicts it.
+	 */
+	@Override
+	public void predictScores(double[] features, double[] scores) throws Exception
+	{
+		if (scores.length != 2)
 		{
-			result += attribute * weights.get(index);
-			index++;
+			super.predictScores(features, scores);
+			return;
 		}
+		double p = 1 / (1 + Math.exp(THRESHOLD - netInput(features)));
+		scores[0] = 1 - p;
+		scores[1] = p;
+	}
+	
+	@Override
+	protected void writeModel(DataOutputStream out) throws Exception
+	{
+		ModelIO.writeDoubles(out, weights);
+	}
+	
+	@Override
+	protected void readModel(DataInputStream in) throws Exception
+	{
+		weights = ModelIO.readDoubles(in);
+	}
+	
+	private double netInput(double[] instance)
+	{
+		int numFeatures = weights.length - 1;
+		double result = Kernels.dot(instance, weights, numFeatures);
 		// Bias weight, multiplied by 1
-		result += weights.get(index);
+		result += weights[numFeatures];
+		return result;
+	}
+	
+	private double predictInstance(double[] instance)
+	{
+		double result = netInput(instance);
 		
 		double output = 0;
 		if (result > THRESHOLD)
@@ -114,17 +233,17 @@ public class Perceptron extends SupervisedLearner {
 	private void initWeights(int numWeights)
 	{
 		for (int i = 0; i < numWeights; i++)
-			weights.add(i, rand.nextDouble());
+			weights[i] = rand.nextDouble();
 	}
 	
 	private void updateWeights(double[] instance, double output, double targetOutput)
 	{
-		for (int i = 0; i < weights.size(); i++)
+		for (int i = 0; i < weights.length; i++)
 		{
 			double featureValue = 1;
-			if (i < (weights.size() - 1))
+			if (i < (weights.length - 1))
 				featureValue = instance[i];
-			weights.set(i, weights.get(i) + ((targetOutput - output) * featureValue * LEARNING_RATE));
+			weights[i] += (targetOutput - output) * featureValue * learningRate;
 		}
 	}
 	//change in weight = (target - output)*learningRate*attribute
@@ -0,0 +1,65 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * Reads an ARFF file as a sequence of matrices of at most batchSize rows,
+ * for feeding an IncrementalLearner. Only the current batch is held in
+ * memory, so the file can be any size. Every batch shares the attribute
+ * names and nominal values read from the header, so label and feature
+ * indexes agree across batches. The data is not normalized, since the
+ * ranges of the whole file are not known while it is being read.
+ */
+public class ArffBatchReader {
+	private final ArffParser m_parser;
+	private final Matrix m_header;
+	private final int m_batchSize;
+
+	// Opens filename and reads its header
+	public ArffBatchReader(String filename, int batchSize) throws Exception {
+		if (batchSize <= 0)
+			throw new Exception("The batch size must be greater than 0");
+		m_batchSize = batchSize;
+		m_header = new Matrix();
+		m_header.m_attr_name = new ArrayList<String>();
+		m_header.m_str_to_enum = new ArrayList< TreeMap<String, Integer> >();
+		m_header.m_enum_to_str = new ArrayList< TreeMap<Integer, String> >();
+		m_parser = ArffParser.open(filename);
+		try {
+			m_parser.readHeader(m_header);
+		}
+		catch (Exception e) {
+			m_parser.close();
+			throw e;
+		}
+	}
+
+	// Returns the number of columns in each batch
+	public int cols() { return m_header.cols(); }
+
+	// Returns the next batch of rows, or null when the file is exhausted
+	public Matrix nextBatch() throws Exception {
+		MatrixStorage data = m_parser.readRows(null, m_header.cols(), m_batchSize);
+		if (data.rows() == 0)
+			return null;
+		Matrix batch = new Matrix();
+		batch.m_data = data;
+		batch.m_attr_name = new ArrayList<String>(m_header.m_attr_name);
+		batch.m_str_to_enum = new ArrayList< TreeMap<String, Integer> >(m_header.m_str_to_enum);
+		batch.m_enum_to_str = new ArrayList< TreeMap<Integer, String> >(m_header.m_enum_to_str);
+		return batch;
+	}
+
+	// Returns the throughput measured so far
+	public ArffParser.Stats stats() { return m_parser.stats(); }
+
+	public void close() throws IOException {
+		m_parser.close();
+	}
+}
@@ -0,0 +1,479 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A streaming ARFF reader. The file is pulled through a channel into a
+ * reusable byte buffer and every data line is tokenized in place: numbers
+ * are parsed straight from the bytes and nominal values are looked up
+ * without building a String, so the data section produces no per-line
+ * garbage. Header lines are few and are handed to Matrix as Strings.
+ * Data lines may be dense or sparse ("{index value, ...}", with omitted
+ * attributes being 0); a file whose first data line is sparse is loaded
+ * into a SparseStorage.
+ */
+public class ArffParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ReadableByteChannel m_channel;
+	private byte[] m_buf;
+	private ByteBuffer m_wrap;
+	private int m_pos; // start of the unread bytes
+	private int m_limit; // end of the valid bytes
+	private long m_bufferOffset; // position in the input of m_buf[0]
+	private boolean m_eof;
+	private int m_lineStart;
+	private int m_lineEnd;
+	private long m_lineNumber;
+
+	private Stats m_stats = new Stats();
+	private long m_startTime;
+
+	// Per-column lookup tables for nominal values (null for continuous columns)
+	private NominalDictionary[] m_dictionaries;
+
+	// Scratch space for the pairs of a sparse line
+	private int[] m_sparseIndex;
+	private double[] m_sparseValue;
+
+	/**
+	 * Throughput of a load. Bytes are counted as they come off the channel.
+	 */
+	public static class Stats {
+		public long bytes;
+		public long rows;
+		public long nanos;
+
+		public double bytesPerSecond() { return nanos == 0 ? 0 : bytes * 1e9 / nanos; }
+
+		public double rowsPerSecond() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+
+		public String toString() {
+			return String.format("%d rows, %d bytes in %.3f s (%.1f MB/s, %.0f rows/s)",
+					rows, bytes, nanos / 1e9, bytesPerSecond() / 1e6, rowsPerSecond());
+		}
+	}
+
+	public ArffParser(ReadableByteChannel channel) {
+		m_channel = channel;
+		m_buf = new byte[BUFFER_SIZE];
+		m_wrap = ByteBuffer.wrap(m_buf);
+		m_startTime = System.nanoTime();
+	}
+
+	/*
+	 * Creates a parser over bytes that are already in memory, sharing the
+	 * nominal lookup tables of a parser that has read the header. Used to
+	 * parse one chunk of the data section.
+	 */
+	ArffParser(byte[] buf, int length, ArffParser header) {
+		m_buf = buf;
+		m_limit = length;
+		m_eof = true;
+		m_dictionaries = header.m_dictionaries;
+		m_stats.bytes = length;
+		m_startTime = System.nanoTime();
+	}
+
+	// Opens the specified file for parsing
+	public static ArffParser open(String filename) throws FileNotFoundException {
+		return new ArffParser(new FileInputStream(filename).getChannel());
+	}
+
+	public void close() throws IOException {
+		if (m_channel != null)
+			m_channel.close();
+	}
+
+	// Returns the position in the input of the first byte not yet consumed.
+	// After readHeader this is the start of the data section.
+	public long position() {
+		return m_bufferOffset + m_pos;
+	}
+
+	// Returns the throughput measured so far
+	public Stats stats() {
+		m_stats.nanos = System.nanoTime() - m_startTime;
+		return m_stats;
+	}
+
+	// Reads the header up to and including the @DATA line into the meta-data of m
+	public void readHeader(Matrix m) throws Exception {
+		while (nextLine()) {
+			String line = new String(m_buf, m_lineStart, m_lineEnd - m_lineStart, StandardCharsets.UTF_8).trim();
+			if (line.length() > 0 && line.charAt(0) != '%') {
+				if (m.parseHeaderLine(line))
+					break;
+			}
+		}
+		m_dictionaries = new NominalDictionary[m.cols()];
+		for (int i = 0; i < m.cols(); i++) {
+			if (m.valueCount(i) > 0)
+				m_dictionaries[i] = new NominalDictionary(m, i);
+		}
+	}
+
+	// Reads all remaining data lines. The storage is sparse if the first data
+	// line is in sparse "{index value, ...}" form, and row-major dense otherwise.
+	MatrixStorage readData(Matrix m) throws Exception {
+		return readRows(null, m.cols(), Integer.MAX_VALUE);
+	}
+
+	/*
+	 * Appends at most maxRows data lines to dest and returns dest. If dest is
+	 * null, a storage is created to suit the first data line. Sparse lines are
+	 * added to a sparse storage pair by pair; anything else goes through a
+	 * dense row.
+	 */
+	MatrixStorage readRows(MatrixStorage dest, int cols, int maxRows) throws Exception {
+		double[] row = new double[cols];
+		if (m_sparseIndex == null || m_sparseIndex.length < cols) {
+			m_sparseIndex = new int[cols];
+			m_sparseValue = new double[cols];
+		}
+		int count = 0;
+		while (count < maxRows && nextLine()) {
+			int start = m_lineStart;
+			while (start < m_lineEnd && (m_buf[start] & 0xff) <= ' ')
+				start++;
+			if (start == m_lineEnd || m_buf[start] == '%')
+				continue;
+			boolean sparseLine = m_buf[start] == '{';
+			if (dest == null) {
+				if (sparseLine)
+					dest = new SparseStorage(cols);
+				else
+					dest = new DenseStorage(0, cols, Matrix.Layout.ROW_MAJOR);
+			}
+			if (sparseLine && dest instanceof SparseStorage) {
+				int n = parseSparseLine(m_buf, start, m_lineEnd, m_sparseIndex, m_sparseValue);
+				((SparseStorage)dest).addSparseRow(m_sparseIndex, m_sparseValue, n);
+			}
+			else {
+				parseDataLine(m_buf, start, m_lineEnd, row);
+				dest.addRow(row);
+			}
+			count++;
+		}
+		if (dest == null)
+			dest = new DenseStorage(0, cols, Matrix.Layout.ROW_MAJOR);
+		m_stats.rows += count;
+		return dest;
+	}
+
+	// Tokenizes one data line held in buf[start, end) into row. Returns false
+	// for blank and comment lines.
+	boolean parseDataLine(byte[] buf, int start, int end, double[] row) throws Exception {
+		while (start < end && (buf[start] & 0xff) <= ' ')
+			start++;
+		if (start == end || buf[start] == '%')
+			return false;
+		for (int i = 0; i < row.length; i++)
+			row[i] = 0.0;
+		if (buf[start] == '{') {
+			int n = parseSparseLine(buf, start, end, m_sparseIndex, m_sparseValue);
+			for (int k = 0; k < n; k++)
+				row[m_sparseIndex[k]] = m_sparseValue[k];
+			return true;
+		}
+		int curPos = 0;
+		int p = start;
+		while (p < end) {
+			int tokenEnd = p;
+			while (tokenEnd < end && buf[tokenEnd] != ',')
+				tokenEnd++;
+			int a = p;
+			int b = tokenEnd;
+			while (a < b && (buf[a] & 0xff) <= ' ')
+				a++;
+			while (b > a && (buf[b - 1] & 0xff) <= ' ')
+				b--;
+			if (b > a) {
+				if (curPos >= row.length)
+					throw new Exception("Error parsing line " + m_lineNumber + ": too many values");
+				row[curPos] = parseValue(buf, a, b, curPos);
+				curPos++;
+			}
+			p = tokenEnd + 1;
+		}
+		return true;
+	}
+
+	/*
+	 * Tokenizes a sparse line "{index value, index value, ...}" starting at the
+	 * opening brace. Indexes are 0-based attribute numbers. The pairs are
+	 * stored in index and value sorted by attribute and their number returned.
+	 */
+	int parseSparseLine(byte[] buf, int start, int end, int[] index, double[] value) throws Exception {
+		int close = end;
+		while (close > start && buf[close - 1] != '}')
+			close--;
+		if (close == start)
+			throw new Exception("Error parsing line " + m_lineNumber + ": missing '}'");
+		close--;
+		int count = 0;
+		int p = start + 1;
+		while (p < close) {
+			int tokenEnd = p;
+			while (tokenEnd < close && buf[tokenEnd] != ',')
+				tokenEnd++;
+			int a = p;
+			while (a < tokenEnd && (buf[a] & 0xff) <= ' ')
+				a++;
+			if (a < tokenEnd) {
+				int col = 0;
+				int digitsEnd = a;
+				while (digitsEnd < tokenEnd && buf[digitsEnd] >= '0' && buf[digitsEnd] <= '9')
+					col = col * 10 + (buf[digitsEnd++] - '0');
+				int b = tokenEnd;
+				while (b > digitsEnd && (buf[b - 1] & 0xff) <= ' ')
+					b--;
+				int v = digitsEnd;
+				while (v < b && (buf[v] & 0xff) <= ' ')
+					v++;
+				if (digitsEnd == a || v == digitsEnd || v == b || col >= index.length)
+					throw new Exception("Error parsing line " + m_lineNumber + ": bad sparse entry");
+				double parsed = parseValue(buf, v, b, col);
+				// Keep the pairs sorted by attribute even if the file is not
+				int k = count;
+				while (k > 0 && index[k - 1] > col) {
+					index[k] = index[k - 1];
+					value[k] = value[k - 1];
+					k--;
+				}
+				index[k] = col;
+				value[k] = parsed;
+				count++;
+			}
+			p = tokenEnd + 1;
+		}
+		return count;
+	}
+
+	// Parses a single trimmed token for the specified column
+	private double parseValue(byte[] buf, int a, int b, int col) throws Exception {
+		// Missing instances appear in the dataset as a double defined as MISSING
+		if (b - a == 1 && buf[a] == '?')
+			return Matrix.MISSING;
+		// Discrete values appear as an index to the "name" of that value
+		NominalDictionary dictionary = m_dictionaries[col];
+		if (dictionary != null) {
+			int value = dictionary.lookup(buf, a, b);
+			if (value == -1) {
+				throw new Exception("Error parsing the value '"
+						+ new String(buf, a, b - a, StandardCharsets.UTF_8) + "' on line " + m_lineNumber);
+			}
+			return value;
+		}
+		return parseDouble(buf, a, b);
+	}
+
+	/*
+	 * Parses a decimal number in place. When the digits fit in a long and the
+	 * power of ten is exactly representable, a single multiply or divide gives
+	 * the correctly rounded result, which is identical to Double.parseDouble.
+	 * Everything else (long mantissas, huge exponents, NaN, hex) falls back to
+	 * Double.parseDouble.
+	 */
+	private double parseDouble(byte[] buf, int a, int b) throws Exception {
+		int p = a;
+		boolean negative = false;
+		if (buf[p] == '-' || buf[p] == '+') {
+			negative = buf[p] == '-';
+			p++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean any = false;
+		while (p < b && buf[p] >= '0' && buf[p] <= '9') {
+			if (mantissa != 0 || buf[p] != '0')
+				digits++;
+			mantissa = mantissa * 10 + (buf[p] - '0');
+			any = true;
+			p++;
+			if (digits > 15)
+				return slowParse(buf, a, b);
+		}
+		if (p < b && buf[p] == '.') {
+			p++;
+			while (p < b && buf[p] >= '0' && buf[p] <= '9') {
+				if (mantissa != 0 || buf[p] != '0')
+					digits++;
+				mantissa = mantissa * 10 + (buf[p] - '0');
+				scale--;
+				any = true;
+				p++;
+				if (digits > 15)
+					return slowParse(buf, a, b);
+			}
+		}
+		if (!any)
+			return slowParse(buf, a, b);
+		if (p < b && (buf[p] == 'e' || buf[p] == 'E')) {
+			p++;
+			boolean negativeExp = false;
+			if (p < b && (buf[p] == '-' || buf[p] == '+')) {
+				negativeExp = buf[p] == '-';
+				p++;
+			}
+			int exp = 0;
+			int expStart = p;
+			while (p < b && buf[p] >= '0' && buf[p] <= '9' && exp < 1000) {
+				exp = exp * 10 + (buf[p] - '0');
+				p++;
+			}
+			if (p == expStart)
+				return slowParse(buf, a, b);
+			scale += negativeExp ? -exp : exp;
+		}
+		if (p != b)
+			return slowParse(buf, a, b);
+		double value;
+		if (mantissa == 0)
+			value = 0.0;
+		else if (scale == 0)
+			value = mantissa;
+		else if (scale > 0 && scale < POWERS_OF_TEN.length)
+			value = (double)mantissa * POWERS_OF_TEN[scale];
+		else if (scale < 0 && -scale < POWERS_OF_TEN.length)
+			value = (double)mantissa / POWERS_OF_TEN[-scale];
+		else
+			return slowParse(buf, a, b);
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private double slowParse(byte[] buf, int a, int b) throws Exception {
+		String text = new String(buf, a, b - a, StandardCharsets.UTF_8);
+		try {
+			return Double.parseDouble(text);
+		}
+		catch (NumberFormatException e) {
+			throw new Exception("Error parsing line " + m_lineNumber + "\n" + e.toString());
+		}
+	}
+
+	/*
+	 * Advances to the next line and records its bounds in m_lineStart and
+	 * m_lineEnd (excluding the line terminator). Returns false at end of input.
+	 */
+	private boolean nextLine() throws IOException {
+		int scan = m_pos;
+		while (true) {
+			while (scan < m_limit && m_buf[scan] != '\n')
+				scan++;
+			if (scan < m_limit) {
+				m_lineStart = m_pos;
+				m_lineEnd = scan;
+				if (m_lineEnd > m_lineStart && m_buf[m_lineEnd - 1] == '\r')
+					m_lineEnd--;
+				m_pos = scan + 1;
+				m_lineNumber++;
+				return true;
+			}
+			if (m_eof) {
+				if (m_pos == m_limit)
+					return false;
+				m_lineStart = m_pos;
+				m_lineEnd = m_limit;
+				if (m_lineEnd > m_lineStart && m_buf[m_lineEnd - 1] == '\r')
+					m_lineEnd--;
+				m_pos = m_limit;
+				m_lineNumber++;
+				return true;
+			}
+			scan -= m_pos;
+			fill();
+		}
+	}
+
+	// Moves the unread bytes to the front of the buffer and reads more from the channel
+	private void fill() throws IOException {
+		int remaining = m_limit - m_pos;
+		m_bufferOffset += m_pos;
+		if (m_pos > 0)
+			System.arraycopy(m_buf, m_pos, m_buf, 0, remaining);
+		else if (remaining == m_buf.length) {
+			// A single line is longer than the buffer
+			byte[] bigger = new byte[m_buf.length * 2];
+			System.arraycopy(m_buf, 0, bigger, 0, remaining);
+			m_buf = bigger;
+			m_wrap = ByteBuffer.wrap(m_buf);
+		}
+		m_pos = 0;
+		m_limit = remaining;
+		m_wrap.clear();
+		m_wrap.position(m_limit);
+		int n = m_channel.read(m_wrap);
+		if (n < 0)
+			m_eof = true;
+		else {
+			m_limit += n;
+			m_stats.bytes += n;
+		}
+	}
+
+	/**
+	 * Maps the raw bytes of a nominal value to its enumeration index using an
+	 * open-addressing hash table, so data tokens never become Strings.
+	 */
+	static class NominalDictionary {
+		private byte[][] m_keys;
+		private int[] m_values;
+		private int m_mask;
+
+		NominalDictionary(Matrix m, int col) {
+			int count = m.valueCount(col);
+			int size = Integer.highestOneBit(Math.max(4, count * 2)) * 2;
+			m_keys = new byte[size][];
+			m_values = new int[size];
+			m_mask = size - 1;
+			for (int v = 0; v < count; v++) {
+				byte[] key = m.attrValue(col, v).getBytes(StandardCharsets.UTF_8);
+				int slot = hash(key, 0, key.length) & m_mask;
+				while (m_keys[slot] != null)
+					slot = (slot + 1) & m_mask;
+				m_keys[slot] = key;
+				m_values[slot] = v;
+			}
+		}
+
+		private static int hash(byte[] buf, int a, int b) {
+			int h = 0;
+			for (int i = a; i < b; i++)
+				h = 31 * h + buf[i];
+			return h ^ (h >>> 16);
+		}
+
+		// Returns the index of the value in buf[a, b), or -1 if it is not a known value
+		int lookup(byte[] buf, int a, int b) {
+			int slot = hash(buf, a, b) & m_mask;
+			while (m_keys[slot] != null) {
+				byte[] key = m_keys[slot];
+				if (key.length == b - a) {
+					int i = 0;
+					while (i < key.length && key[i] == buf[a + i])
+						i++;
+					if (i == key.length)
+						return m_values[slot];
+				}
+				slot = (slot + 1) & m_mask;
+			}
+			return -1;
+		}
+	}
+}
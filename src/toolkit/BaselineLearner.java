@@ -4,7 +4,10 @@ package toolkit;
 // See http://creativecommons.org/publicdomain/zero/1.0/
 // ----------------------------------------------------------------
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * For nominal labels, this model simply returns the majority class. For
@@ -15,6 +18,7 @@ import java.util.ArrayList;
 public class BaselineLearner extends SupervisedLearner {
 
 	double[] m_labels;
+	double[] m_priors; // frequency of each value of a nominal first label, else null
 
 	public void train(Matrix features, Matrix labels) throws Exception {
 		m_labels = new double[labels.cols()];
@@ -24,6 +28,14 @@ public class BaselineLearner extends SupervisedLearner {
 			else
 				m_labels[i] = labels.mostCommonValue(i); // nominal
 		}
+		m_priors = null;
+		int[] histogram = labels.columnStats(0).histogram();
+		if(histogram != null) {
+			int total = labels.columnStats(0).count();
+			m_priors = new double[histogram.length];
+			for(int i = 0; i < histogram.length; i++)
+				m_priors[i] = total > 0 ? (double)histogram[i] / total : 0.0;
+		}
 	}
 
 	public void predict(double[] features, double[] labels) throws Exception {
@@ -31,4 +43,31 @@ public class BaselineLearner extends SupervisedLearner {
 			labels[i] = m_labels[i];
 	}
 
+	public boolean isPredictThreadSafe() { return true; }
+
+	protected void writeModel(DataOutputStream out) throws Exception {
+		ModelIO.writeDoubles(out, m_labels);
+		out.writeBoolean(m_priors != null);
+		if(m_priors != null)
+			ModelIO.writeDoubles(out, m_priors);
+	}
+
+	protected void readModel(DataInputStream in) throws Exception {
+		m_labels = ModelIO.readDoubles(in);
+		m_priors = in.readBoolean() ? ModelIO.readDoubles(in) : null;
+	}
+
+	// The scores are the frequencies of the label values in the training set
+	public void predictScores(double[] features, double[] scores) throws Exception {
+		if(m_priors == null || scores.length != m_priors.length)
+			super.predictScores(features, scores);
+		else
+			System.arraycopy(m_priors, 0, scores, 0, scores.length);
+	}
+
+	// Every row gets the same prediction
+	public void predictBatch(Matrix features, int from, int to, double[] out) throws Exception {
+		Arrays.fill(out, 0, to - from, m_labels[0]);
+	}
+
 }
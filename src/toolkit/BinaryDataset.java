@@ -0,0 +1,216 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * A compact binary image of a loaded ARFF file, stored next to it as
+ * "name.arff.bin". The header records the size and modification time of the
+ * ARFF it was built from, the attribute names and the nominal values. The
+ * cells follow as a row-major block of little-endian doubles, aligned to 8
+ * bytes, which is mapped straight into a MappedStorage.
+ *
+ * Layout:
+ *   int magic, int version, long arffSize, long arffModified, int rows, int cols
+ *   per column: string name, int valueCount, valueCount strings
+ *   padding to a multiple of 8
+ *   rows * cols doubles
+ * Strings are an int byte length followed by UTF-8 bytes. A whole sidecar
+ * must fit in Integer.MAX_VALUE bytes to be mapped, so larger datasets are
+ * not cached.
+ */
+public class BinaryDataset {
+	private static final int MAGIC = 0x41524642; // "ARFB"
+	private static final int VERSION = 1;
+
+	// Returns the name of the binary sidecar for the specified ARFF file
+	public static String sidecarName(String arffFilename) {
+		return arffFilename + ".bin";
+	}
+
+	/*
+	 * Maps the sidecar of the specified ARFF file into m. Returns false if
+	 * there is no sidecar or it was built from a different version of the
+	 * ARFF file, in which case m is left untouched. Throws an IOException if
+	 * the sidecar is damaged, so the caller can rebuild it.
+	 */
+	public static boolean load(String arffFilename, Matrix m) throws IOException {
+		File arff = new File(arffFilename);
+		File bin = new File(sidecarName(arffFilename));
+		if (!bin.isFile())
+			return false;
+		RandomAccessFile file = new RandomAccessFile(bin, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				return false;
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.remaining() < 32 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				return false;
+			if (buf.getLong() != arff.length() || buf.getLong() != arff.lastModified())
+				return false;
+			int rows = buf.getInt();
+			int cols = buf.getInt();
+			if (rows < 0 || cols < 0)
+				throw damaged(bin);
+			ArrayList<String> names = new ArrayList<String>();
+			ArrayList< TreeMap<String, Integer> > strToEnum = new ArrayList< TreeMap<String, Integer> >();
+			ArrayList< TreeMap<Integer, String> > enumToStr = new ArrayList< TreeMap<Integer, String> >();
+			for (int i = 0; i < cols; i++) {
+				names.add(readString(buf, bin));
+				TreeMap<String, Integer> ste = new TreeMap<String, Integer>();
+				TreeMap<Integer, String> ets = new TreeMap<Integer, String>();
+				int vals = readInt(buf, bin);
+				if (vals < 0)
+					throw damaged(bin);
+				for (int j = 0; j < vals; j++) {
+					String value = readString(buf, bin);
+					ste.put(value, j);
+					ets.put(j, value);
+				}
+				strToEnum.add(ste);
+				enumToStr.add(ets);
+			}
+			if (align(buf.position()) > buf.limit())
+				throw damaged(bin);
+			buf.position(align(buf.position()));
+			if ((long)buf.remaining() != (long)rows * cols * 8)
+				return false;
+			ByteBuffer data = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+			m.m_attr_name = names;
+			m.m_str_to_enum = strToEnum;
+			m.m_enum_to_str = enumToStr;
+			m.m_data = new MappedStorage(data.asDoubleBuffer(), rows, cols);
+			return true;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/*
+	 * Writes the sidecar for the specified ARFF file. The image is written to a
+	 * temporary file and renamed into place, so a concurrent reader never maps
+	 * a half-written file. Nothing is written if the sidecar would be too
+	 * large to map.
+	 */
+	public static void save(String arffFilename, Matrix m) throws IOException {
+		long headerSize = headerSize(m);
+		if (headerSize + (long)m.rows() * m.cols() * 8 > Integer.MAX_VALUE)
+			return;
+		File arff = new File(arffFilename);
+		File bin = new File(sidecarName(arffFilename));
+		File tmp = new File(bin.getPath() + ".tmp" + System.nanoTime());
+		RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate((int)headerSize).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(arff.length());
+			header.putLong(arff.lastModified());
+			header.putInt(m.rows());
+			header.putInt(m.cols());
+			for (int i = 0; i < m.cols(); i++) {
+				writeString(header, m.m_attr_name.get(i));
+				int vals = m.valueCount(i);
+				header.putInt(vals);
+				for (int j = 0; j < vals; j++)
+					writeString(header, m.attrValue(i, j));
+			}
+			while (header.position() % 8 != 0)
+				header.put((byte)0);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+
+			int cols = m.cols();
+			int rowsPerBlock = Math.max(1, (1 << 16) / Math.max(1, cols));
+			ByteBuffer block = ByteBuffer.allocate(rowsPerBlock * cols * 8).order(ByteOrder.LITTLE_ENDIAN);
+			double[] row = new double[cols];
+			for (int r = 0; r < m.rows(); r++) {
+				m.copyRow(r, row);
+				for (int c = 0; c < cols; c++)
+					block.putDouble(row[c]);
+				if (!block.hasRemaining() || r == m.rows() - 1) {
+					block.flip();
+					while (block.hasRemaining())
+						channel.write(block);
+					block.clear();
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+		if (!tmp.renameTo(bin)) {
+			bin.delete();
+			if (!tmp.renameTo(bin)) {
+				tmp.delete();
+				throw new IOException("Could not write " + bin.getPath());
+			}
+		}
+	}
+
+	private static long headerSize(Matrix m) {
+		long size = 32;
+		for (int i = 0; i < m.cols(); i++) {
+			size += 4 + utf8(m.m_attr_name.get(i)).length + 4;
+			for (int j = 0; j < m.valueCount(i); j++)
+				size += 4 + utf8(m.attrValue(i, j)).length;
+		}
+		return align(size);
+	}
+
+	private static int align(int position) {
+		return (position + 7) & ~7;
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static byte[] utf8(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(ByteBuffer buf, String s) {
+		byte[] bytes = utf8(s);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+	}
+
+	// Reads an int, checking that the sidecar has one left
+	private static int readInt(ByteBuffer buf, File bin) throws IOException {
+		if (buf.remaining() < 4)
+			throw damaged(bin);
+		return buf.getInt();
+	}
+
+	// Reads a string, checking its length against what is left of the sidecar
+	private static String readString(ByteBuffer buf, File bin) throws IOException {
+		int length = readInt(buf, bin);
+		if (length < 0 || length > buf.remaining())
+			throw damaged(bin);
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static IOException damaged(File bin) {
+		return new IOException(bin.getPath() + " is damaged");
+	}
+}
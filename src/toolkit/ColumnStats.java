@@ -0,0 +1,185 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics of one column of a Matrix, gathered in a single pass.
+ * Nominal columns also get a histogram of their values, which gives the mode
+ * without any boxing, and columns with missing values get a bitmap of the
+ * rows where they occur. Matrix keeps the bitmap current as single cells are
+ * set and rows are swapped; the rest of the statistics are then gathered
+ * again, from this column alone, the next time one of them is asked for.
+ */
+public class ColumnStats {
+	private final Matrix m_matrix;
+	private final int m_col;
+	private int m_missing;
+	private long[] m_missingBits; // bit r is set if row r is missing, null if none are
+	private boolean m_summarized; // false once a cell has changed since the last pass
+	private double m_min;
+	private double m_max;
+	private double m_sum;
+	private int m_count; // number of known values
+	private int[] m_histogram; // value counts, null for continuous columns
+	private boolean m_haveMode;
+	private double m_mode;
+
+	ColumnStats(Matrix m, int col, double[] values, int rows) {
+		m_matrix = m;
+		m_col = col;
+		summarize(values, rows);
+	}
+
+	// Gathers every statistic from the values of the column
+	private void summarize(double[] values, int rows) {
+		m_missing = 0;
+		m_missingBits = null;
+		m_min = Matrix.MISSING;
+		m_max = Matrix.MISSING;
+		m_sum = 0;
+		m_count = 0;
+		m_histogram = null;
+		m_haveMode = false;
+		m_mode = Matrix.MISSING;
+		int valueCount = m_matrix.valueCount(m_col);
+		if (valueCount > 0)
+			m_histogram = new int[valueCount];
+		for (int i = 0; i < rows; i++) {
+			double v = values[i];
+			if (v == Matrix.MISSING) {
+				if (m_missingBits == null)
+					m_missingBits = new long[(rows + 63) >>> 6];
+				m_missingBits[i >>> 6] |= 1L << i;
+				m_missing++;
+				continue;
+			}
+			if (m_min == Matrix.MISSING || v < m_min)
+				m_min = v;
+			if (m_max == Matrix.MISSING || v > m_max)
+				m_max = v;
+			m_sum += v;
+			m_count++;
+			if (m_histogram != null) {
+				int index = (int)v;
+				if (index >= 0 && index < valueCount && index == v)
+					m_histogram[index]++;
+				else
+					m_histogram = null; // not a valid enumeration, fall back to sorting
+			}
+		}
+		if (m_histogram != null) {
+			int maxCount = 0;
+			for (int i = 0; i < m_histogram.length; i++) {
+				if (m_histogram[i] > maxCount) {
+					maxCount = m_histogram[i];
+					m_mode = i;
+				}
+			}
+			m_haveMode = true;
+		}
+		m_summarized = true;
+	}
+
+	// Makes sure the statistics other than the missing values are current
+	private void summarize() {
+		if (!m_summarized)
+			summarize(m_matrix.column(m_col), m_matrix.rows());
+	}
+
+	// Records that the specified row now holds v
+	void set(int row, double v) {
+		boolean missing = v == Matrix.MISSING;
+		if (missing != isMissing(row)) {
+			if (m_missingBits == null)
+				m_missingBits = new long[(m_matrix.rows() + 63) >>> 6];
+			m_missingBits[row >>> 6] ^= 1L << row;
+			m_missing += missing ? 1 : -1;
+			if (m_missing == 0)
+				m_missingBits = null;
+		}
+		m_summarized = false;
+	}
+
+	// Records that the rows are about to be reordered. The sum is added up in
+	// row order, so it is gathered again to round just as a fresh pass would.
+	void reordering() { m_summarized = false; }
+
+	// Records that rows a and b have been swapped
+	void swapRows(int a, int b) {
+		if (m_missingBits == null || isMissing(a) == isMissing(b))
+			return;
+		m_missingBits[a >>> 6] ^= 1L << a;
+		m_missingBits[b >>> 6] ^= 1L << b;
+	}
+
+	// Returns the smallest known value, or MISSING if there are none
+	public double min() {
+		summarize();
+		return m_min;
+	}
+
+	// Returns the largest known value, or MISSING if there are none
+	public double max() {
+		summarize();
+		return m_max;
+	}
+
+	// Returns the mean of the known values
+	public double mean() {
+		summarize();
+		return m_sum / m_count;
+	}
+
+	// Returns the number of known values
+	public int count() { return m_matrix.rows() - m_missing; }
+
+	// Returns the number of missing values
+	public int missing() { return m_missing; }
+
+	// Returns true if the value in the specified row is missing
+	public boolean isMissing(int row) {
+		return m_missingBits != null && (m_missingBits[row >>> 6] & (1L << row)) != 0;
+	}
+
+	// Returns the missing-value bitmap (bit r of word r / 64 is set if row r is
+	// missing), or null if the column is complete. Callers must not modify it.
+	public long[] missingBits() { return m_missingBits; }
+
+	// Returns how many times each nominal value occurs, or null for a continuous column
+	public int[] histogram() {
+		summarize();
+		return m_histogram;
+	}
+
+	/*
+	 * Returns the most common known value (the smallest one if there is a
+	 * tie), or MISSING if there are none. Continuous columns have no
+	 * histogram, so their mode is found by sorting a copy of the column the
+	 * first time it is asked for.
+	 */
+	public double mode() {
+		summarize();
+		if (!m_haveMode) {
+			double[] values = m_matrix.column(m_col);
+			Arrays.sort(values);
+			int maxCount = 0;
+			int i = 0;
+			while (i < values.length && values[i] != Matrix.MISSING) {
+				int j = i;
+				while (j < values.length && values[j] == values[i])
+					j++;
+				if (j - i > maxCount) {
+					maxCount = j - i;
+					m_mode = values[i];
+				}
+				i = j;
+			}
+			m_haveMode = true;
+		}
+		return m_mode;
+	}
+}
@@ -0,0 +1,38 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.function.Supplier;
+
+/**
+ * Prints training diagnostics to standard output. Epoch events are sampled:
+ * only the first epoch and every interval-th epoch after it are printed, so
+ * a long run produces a bounded amount of console output. Phase timings,
+ * counters and messages, which come once per training run, are all printed.
+ */
+public class ConsoleTrainingListener implements TrainingListener {
+	private final int m_interval;
+
+	public ConsoleTrainingListener(int interval) {
+		m_interval = Math.max(1, interval);
+	}
+
+	public synchronized void epochEnded(int epoch, String metric, double value) {
+		if (epoch == 1 || epoch % m_interval == 0)
+			System.out.println("Epoch " + epoch + ": " + metric + "=" + value);
+	}
+
+	public synchronized void phaseTimed(String phase, long nanos) {
+		System.out.println("Time in " + phase + " (in seconds): " + nanos / 1e9);
+	}
+
+	public synchronized void counter(String name, long value) {
+		System.out.println(name + ": " + value);
+	}
+
+	public synchronized void message(Supplier<String> text) {
+		System.out.println(text.get());
+	}
+}
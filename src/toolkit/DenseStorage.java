@@ -0,0 +1,143 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Arrays;
+
+/**
+ * Keeps every cell of the matrix in a single contiguous double[] buffer.
+ * In ROW_MAJOR layout the cells of a row are adjacent, which suits learners
+ * that walk over instances. In COLUMN_MAJOR layout the cells of a column are
+ * adjacent, which suits per-attribute statistics and split counting.
+ * Spare capacity is kept at the end of the buffer (row-major) or at the end
+ * of every column (column-major) so rows can be appended cheaply.
+ */
+class DenseStorage extends MatrixStorage {
+	double[] m_buf;
+	int m_rows;
+	int m_cols;
+	int m_capacity; // number of rows the buffer can hold
+	Matrix.Layout m_layout;
+
+	DenseStorage(int rows, int cols, Matrix.Layout layout) {
+		m_rows = rows;
+		m_cols = cols;
+		m_capacity = rows;
+		m_layout = layout;
+		m_buf = new double[rows * cols];
+	}
+
+	int rows() { return m_rows; }
+
+	int cols() { return m_cols; }
+
+	// Returns the position of the specified cell in the buffer
+	int index(int r, int c) {
+		if(m_layout == Matrix.Layout.ROW_MAJOR)
+			return r * m_cols + c;
+		return c * m_capacity + r;
+	}
+
+	// Returns the distance in the buffer between two consecutive cells of a column
+	int columnStep() {
+		return m_layout == Matrix.Layout.ROW_MAJOR ? m_cols : 1;
+	}
+
+	double get(int r, int c) { return m_buf[index(r, c)]; }
+
+	void set(int r, int c, double v) { m_buf[index(r, c)] = v; }
+
+	void addRow(double[] row) {
+		if(m_rows == m_capacity)
+			grow(Math.max(16, m_capacity + (m_capacity >> 1)));
+		if(m_layout == Matrix.Layout.ROW_MAJOR)
+			System.arraycopy(row, 0, m_buf, m_rows * m_cols, m_cols);
+		else {
+			for(int c = 0; c < m_cols; c++)
+				m_buf[c * m_capacity + m_rows] = row[c];
+		}
+		m_rows++;
+	}
+
+	// Reserves room for at least the specified number of rows
+	void ensureCapacity(int rows) {
+		if(rows > m_capacity)
+			grow(Math.max(rows, m_capacity + (m_capacity >> 1)));
+	}
+
+	private void grow(int capacity) {
+		if(m_layout == Matrix.Layout.ROW_MAJOR)
+			m_buf = Arrays.copyOf(m_buf, capacity * m_cols);
+		else {
+			double[] buf = new double[capacity * m_cols];
+			for(int c = 0; c < m_cols; c++)
+				System.arraycopy(m_buf, c * m_capacity, buf, c * capacity, m_rows);
+			m_buf = buf;
+		}
+		m_capacity = capacity;
+	}
+
+	void swapRows(int a, int b) {
+		if(a == b)
+			return;
+		int step = m_layout == Matrix.Layout.ROW_MAJOR ? 1 : m_capacity;
+		int pa = index(a, 0);
+		int pb = index(b, 0);
+		for(int c = 0; c < m_cols; c++) {
+			double tmp = m_buf[pa];
+			m_buf[pa] = m_buf[pb];
+			m_buf[pb] = tmp;
+			pa += step;
+			pb += step;
+		}
+	}
+
+	void copyRow(int r, double[] dest, int destPos) {
+		if(m_layout == Matrix.Layout.ROW_MAJOR)
+			System.arraycopy(m_buf, r * m_cols, dest, destPos, m_cols);
+		else {
+			for(int c = 0, p = r; c < m_cols; c++, p += m_capacity)
+				dest[destPos + c] = m_buf[p];
+		}
+	}
+
+	void copyColumn(int c, double[] dest, int destPos) {
+		if(m_layout == Matrix.Layout.COLUMN_MAJOR)
+			System.arraycopy(m_buf, c * m_capacity, dest, destPos, m_rows);
+		else {
+			for(int r = 0, p = c; r < m_rows; r++, p += m_cols)
+				dest[destPos + r] = m_buf[p];
+		}
+	}
+
+	void setColumn(int c, double[] src, int srcPos) {
+		if(m_layout == Matrix.Layout.COLUMN_MAJOR)
+			System.arraycopy(src, srcPos, m_buf, c * m_capacity, m_rows);
+		else {
+			for(int r = 0, p = c; r < m_rows; r++, p += m_cols)
+				m_buf[p] = src[srcPos + r];
+		}
+	}
+
+	MatrixStorage copy() {
+		return toLayout(m_layout);
+	}
+
+	// Returns a copy of this storage arranged in the specified layout
+	DenseStorage toLayout(Matrix.Layout layout) {
+		DenseStorage that = new DenseStorage(m_rows, m_cols, layout);
+		if(layout == m_layout && m_capacity == m_rows)
+			System.arraycopy(m_buf, 0, that.m_buf, 0, m_rows * m_cols);
+		else if(layout == Matrix.Layout.ROW_MAJOR) {
+			for(int r = 0; r < m_rows; r++)
+				copyRow(r, that.m_buf, r * m_cols);
+		}
+		else {
+			for(int c = 0; c < m_cols; c++)
+				copyColumn(c, that.m_buf, c * m_rows);
+		}
+		return that;
+	}
+}
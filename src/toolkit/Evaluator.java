@@ -0,0 +1,195 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores a trained learner on a labelled set. The rows are cut into chunks of
+ * CHUNK_ROWS, independent of the number of threads. Each chunk is predicted
+ * with predictBatch and tallied by a single worker into its own int[][]
+ * confusion counts, so no cell is shared while scoring. The tallies are
+ * merged in chunk order at the end. Counts are exact, and the squared errors
+ * of a continuous label are summed row by row in the original order, so
+ * the accuracy and RMSE are bit-identical to a sequential pass whatever the
+ * number of workers. Learners that are not isPredictThreadSafe() have their
+ * chunks run one after another on the calling thread. The same chunking
+ * scores rows for the MetricsAccumulator.
+ */
+class Evaluator {
+	static final int CHUNK_ROWS = 1024;
+
+	private final SupervisedLearner m_learner;
+	private final Matrix m_features;
+	private final Matrix m_labels;
+	private final int m_labelValues;
+
+	Evaluator(SupervisedLearner learner, Matrix features, Matrix labels) {
+		m_learner = learner;
+		m_features = features;
+		m_labels = labels;
+		m_labelValues = labels.valueCount(0);
+	}
+
+	/*
+	 * Returns the predictive accuracy for a nominal label, or the RMSE for a
+	 * continuous one. If confusion is not null and the label is nominal, it is
+	 * filled with the confusion matrix.
+	 */
+	double measure(Matrix confusion) throws Exception {
+		int rows = m_features.rows();
+		double[] predictions = m_labelValues == 0 ? new double[rows] : null;
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		for (int from = 0; from < rows; from += CHUNK_ROWS)
+			chunks.add(new Chunk(from, Math.min(rows, from + CHUNK_ROWS), predictions));
+
+		run(chunks);
+		for (Chunk chunk : chunks) {
+			if (chunk.m_error != null)
+				throw chunk.m_error;
+		}
+
+		if (m_labelValues == 0) {
+			double sse = 0.0;
+			for (int i = 0; i < rows; i++) {
+				double delta = m_labels.get(i, 0) - predictions[i];
+				sse += (delta * delta);
+			}
+			return Math.sqrt(sse / rows);
+		}
+		int[][] counts = new int[m_labelValues][m_labelValues];
+		int correctCount = 0;
+		for (Chunk chunk : chunks) {
+			correctCount += chunk.m_correct;
+			for (int t = 0; t < m_labelValues; t++) {
+				for (int p = 0; p < m_labelValues; p++)
+					counts[t][p] += chunk.m_confusion[t][p];
+			}
+		}
+		if (confusion != null) {
+			confusion.setSize(m_labelValues, m_labelValues);
+			for (int i = 0; i < m_labelValues; i++)
+				confusion.setAttrName(i, m_labels.attrValue(0, i));
+			for (int t = 0; t < m_labelValues; t++) {
+				for (int p = 0; p < m_labelValues; p++)
+					confusion.set(t, p, counts[t][p]);
+			}
+		}
+		return (double)correctCount / rows;
+	}
+
+	/*
+	 * Scores every row once with predictScores and returns the merged metrics.
+	 * Each chunk fills its own accumulator and the accumulators are merged in
+	 * chunk order, so the sums come out the same for any number of workers.
+	 */
+	MetricsAccumulator measureMetrics() throws Exception {
+		if (m_labelValues == 0)
+			throw new Exception("Metrics need a nominal label");
+		int rows = m_features.rows();
+		ArrayList<ScoreChunk> chunks = new ArrayList<ScoreChunk>();
+		for (int from = 0; from < rows; from += CHUNK_ROWS)
+			chunks.add(new ScoreChunk(from, Math.min(rows, from + CHUNK_ROWS)));
+		run(chunks);
+		MetricsAccumulator metrics = new MetricsAccumulator(m_labelValues);
+		for (ScoreChunk chunk : chunks) {
+			if (chunk.m_error != null)
+				throw chunk.m_error;
+			metrics.merge(chunk.m_metrics);
+		}
+		return metrics;
+	}
+
+	// Runs the chunks on the common pool if the learner allows it, and in order on this thread otherwise
+	private void run(final ArrayList<? extends RecursiveAction> chunks) {
+		if (m_learner.isPredictThreadSafe() && chunks.size() > 1 && ForkJoinPool.getCommonPoolParallelism() > 1
+				&& !ForkJoinTask.inForkJoinPool())
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				protected void compute() { invokeAll(chunks); }
+			});
+		else {
+			for (RecursiveAction chunk : chunks)
+				chunk.invoke();
+		}
+	}
+
+	/**
+	 * Scores the rows [m_from, m_to) into a private accumulator.
+	 */
+	private class ScoreChunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int m_from;
+		private final int m_to;
+		MetricsAccumulator m_metrics;
+		Exception m_error;
+
+		ScoreChunk(int from, int to) {
+			m_from = from;
+			m_to = to;
+		}
+
+		protected void compute() {
+			try {
+				m_metrics = new MetricsAccumulator(m_labelValues);
+				double[] row = new double[m_features.cols()];
+				double[] scores = new double[m_labelValues];
+				for (int i = m_from; i < m_to; i++) {
+					m_learner.predictScores(m_features.copyRow(i, row), scores);
+					m_metrics.add((int)m_labels.get(i, 0), scores);
+				}
+			}
+			catch (Exception e) {
+				m_error = e;
+			}
+		}
+	}
+
+	/**
+	 * Predicts and tallies the rows [m_from, m_to).
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int m_from;
+		private final int m_to;
+		private final double[] m_predictions; // shared, for a continuous label
+		int[][] m_confusion;
+		int m_correct;
+		Exception m_error;
+
+		Chunk(int from, int to, double[] predictions) {
+			m_from = from;
+			m_to = to;
+			m_predictions = predictions;
+		}
+
+		protected void compute() {
+			try {
+				double[] out = new double[m_to - m_from];
+				m_learner.predictBatch(m_features, m_from, m_to, out);
+				if (m_predictions != null) {
+					System.arraycopy(out, 0, m_predictions, m_from, out.length);
+					return;
+				}
+				m_confusion = new int[m_labelValues][m_labelValues];
+				for (int i = m_from; i < m_to; i++) {
+					int targ = (int)m_labels.get(i, 0);
+					if (targ >= m_labelValues)
+						throw new Exception("The label is out of range");
+					int pred = (int)out[i - m_from];
+					if (pred >= 0 && pred < m_labelValues)
+						m_confusion[targ][pred]++;
+					if (pred == targ)
+						m_correct++;
+				}
+			}
+			catch (Exception e) {
+				m_error = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Writes every training event to a file, one line per event, as CSV (with
+ * a header line) or as JSON lines, chosen by whether the file name ends in
+ * ".json". Each event records the nanoseconds since the listener was
+ * created, the kind of event, its name, the epoch (or -1) and its value.
+ * For messages the name is the text and the value is empty. The file is
+ * buffered and only complete when close is called.
+ */
+public class FileTrainingListener implements TrainingListener {
+	private final BufferedWriter m_out;
+	private final boolean m_json;
+	private final long m_startTime;
+
+	public FileTrainingListener(String filename) throws IOException {
+		m_json = filename.toLowerCase().endsWith(".json");
+		m_out = new BufferedWriter(new FileWriter(filename));
+		m_startTime = System.nanoTime();
+		if (!m_json)
+			m_out.write("nanos,event,name,epoch,value\n");
+	}
+
+	public synchronized void epochEnded(int epoch, String metric, double value) {
+		write("epoch", metric, epoch, Double.toString(value));
+	}
+
+	public synchronized void phaseTimed(String phase, long nanos) {
+		write("phase", phase, -1, Long.toString(nanos));
+	}
+
+	public synchronized void counter(String name, long value) {
+		write("counter", name, -1, Long.toString(value));
+	}
+
+	public synchronized void message(Supplier<String> text) {
+		write("message", text.get(), -1, null);
+	}
+
+	public synchronized void close() throws IOException {
+		m_out.close();
+	}
+
+	// Writes one event. A failed write is not allowed to stop training.
+	private void write(String event, String name, int epoch, String value) {
+		long nanos = System.nanoTime() - m_startTime;
+		try {
+			if (m_json)
+				m_out.write("{\"nanos\":" + nanos + ",\"event\":\"" + event + "\",\"name\":" + jsonString(name)
+						+ ",\"epoch\":" + epoch + ",\"value\":" + (value == null ? "null" : jsonNumber(value)) + "}\n");
+			else
+				m_out.write(nanos + "," + event + "," + csvString(name) + "," + epoch + ","
+						+ (value == null ? "" : value) + "\n");
+		}
+		catch (IOException e) {
+			System.err.println("Could not write training event: " + e.getMessage());
+		}
+	}
+
+	private static String csvString(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+			return s;
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String jsonString(String s) {
+		StringBuilder b = new StringBuilder(s.length() + 2);
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				b.append('\\').append(c);
+			else if (c == '\n')
+				b.append("\\n");
+			else if (c < ' ')
+				b.append(String.format("\\u%04x", (int)c));
+			else
+				b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	// JSON has no NaN or infinities, so those become strings
+	private static String jsonNumber(String value) {
+		return value.equals("NaN") || value.endsWith("Infinity") ? "\"" + value + "\"" : value;
+	}
+}
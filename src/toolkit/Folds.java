@@ -0,0 +1,207 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The folds of reps repetitions of k-fold cross-validation over one
+ * dataset, as row indexes. Each repetition orders the rows by a permutation
+ * drawn from a Random (see foldOrder), and a fold's training and test sets
+ * are row-index views of the dataset through that permutation, so the
+ * dataset is never reordered or written and can be shared by folds that
+ * run at the same time. Every fold also gets a seed for its learner's
+ * Random, split from a SplittableRandom when the folds are built, so it
+ * depends on the fold and not on when the fold runs. The same folds can be
+ * evaluated for any number of learners or configurations.
+ */
+class Folds {
+	/**
+	 * Makes a new, untrained learner that uses the specified Random
+	 */
+	interface LearnerFactory {
+		SupervisedLearner create(Random rand) throws Exception;
+	}
+
+	/**
+	 * The outcome of training and testing on one fold
+	 */
+	static class Result {
+		final int rep;
+		final int fold;
+		double accuracy;
+		double trainAccuracy;
+		double trainMillis;
+		double testMillis;
+		MetricsAccumulator metrics; // test set metrics, or null
+		RecordingTrainingListener log; // null if the training events were not recorded
+
+		Result(int rep, int fold) {
+			this.rep = rep;
+			this.fold = fold;
+		}
+	}
+
+	private final Matrix m_data;
+	private final int m_folds;
+	private final int[][] m_trainRows;
+	private final int[][] m_testRows;
+	private final long[] m_seeds;
+
+	Folds(Matrix data, int folds, int reps, boolean stratify, Random rand) {
+		m_data = data;
+		m_folds = folds;
+		m_trainRows = new int[reps * folds][];
+		m_testRows = new int[reps * folds][];
+		m_seeds = new long[reps * folds];
+		SplittableRandom seeds = new SplittableRandom(rand.nextLong());
+		int rows = data.rows();
+		int[] bounds = new int[folds + 1];
+		for (int j = 0; j < reps; j++) {
+			int[] order = foldOrder(data, folds, stratify, rand, bounds);
+			for (int i = 0; i < folds; i++) {
+				int begin = bounds[i];
+				int end = bounds[i + 1];
+				int n = j * folds + i;
+				m_trainRows[n] = new int[rows - (end - begin)];
+				System.arraycopy(order, 0, m_trainRows[n], 0, begin);
+				System.arraycopy(order, end, m_trainRows[n], begin, rows - end);
+				m_testRows[n] = Arrays.copyOfRange(order, begin, end);
+				m_seeds[n] = seeds.split().nextLong();
+			}
+		}
+	}
+
+	// Returns the number of folds over all repetitions
+	int count() { return m_seeds.length; }
+
+	/*
+	 * Trains a learner from factory, configured with config unless it is
+	 * null, on the training rows of fold n (counted over all repetitions)
+	 * and measures it on the test rows. The accuracy on the training rows
+	 * and the test set metrics (for a nominal label) are only measured if
+	 * asked for, and the training events are recorded if record is true.
+	 */
+	Result evaluate(int n, LearnerFactory factory, LearnerConfig config, boolean trainAccuracy, boolean metrics,
+			boolean record) throws Exception {
+		Result result = new Result(n / m_folds, n % m_folds);
+		SupervisedLearner learner = factory.create(new Random(m_seeds[n]));
+		if (config != null)
+			learner.configure(config);
+		if (record) {
+			result.log = new RecordingTrainingListener();
+			learner.setTrainingListener(result.log);
+		}
+		int cols = m_data.cols();
+		Matrix trainFeatures = new Matrix(m_data, m_trainRows[n].clone(), 0, cols - 1);
+		Matrix trainLabels = new Matrix(m_data, m_trainRows[n].clone(), cols - 1, 1);
+		Matrix testFeatures = new Matrix(m_data, m_testRows[n].clone(), 0, cols - 1);
+		Matrix testLabels = new Matrix(m_data, m_testRows[n].clone(), cols - 1, 1);
+		double startTime = System.currentTimeMillis();
+		learner.train(trainFeatures, trainLabels);
+		double testTime = System.currentTimeMillis();
+		result.trainMillis = testTime - startTime;
+		result.accuracy = learner.measureAccuracy(testFeatures, testLabels, null);
+		result.testMillis = System.currentTimeMillis() - testTime;
+		if (trainAccuracy)
+			result.trainAccuracy = learner.measureAccuracy(trainFeatures, trainLabels, null);
+		if (metrics && testLabels.valueCount(0) > 0)
+			result.metrics = learner.measureMetrics(testFeatures, testLabels);
+		return result;
+	}
+
+	/*
+	 * Runs the tasks on a fixed pool of at most threads threads and returns
+	 * their results in the order of the tasks. The first task to fail has
+	 * its exception rethrown.
+	 */
+	static <T> List<T> run(List<Callable<T>> tasks, int threads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			ArrayList<T> results = new ArrayList<T>(tasks.size());
+			for (Future<T> future : pool.invokeAll(tasks))
+				results.add(future.get());
+			return results;
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Returns the row indexes of data grouped by fold: fold i is
+	 * order[bounds[i] .. bounds[i+1]). Without stratification the rows are
+	 * permuted and cut into contiguous folds. With it, the rows of each
+	 * label value are permuted separately and dealt to the folds in turn,
+	 * one value after another, so every fold gets its share of each value
+	 * (to within one row) and fold sizes differ by at most one.
+	 */
+	private static int[] foldOrder(Matrix data, int folds, boolean stratify, Random rand, int[] bounds) {
+		int rows = data.rows();
+		if (!stratify) {
+			for (int i = 0; i <= folds; i++)
+				bounds[i] = (int)((long)i * rows / folds);
+			int[] order = Matrix.rowRange(0, rows);
+			shuffle(order, 0, rows, rand);
+			return order;
+		}
+
+		// Group the rows by label value, with missing labels last
+		int[] codes = data.copyCodes(data.cols() - 1, new int[rows]);
+		int values = data.valueCount(data.cols() - 1);
+		int[] groupStart = new int[values + 2];
+		for (int r = 0; r < rows; r++)
+			groupStart[group(codes[r], values) + 1]++;
+		for (int g = 0; g <= values; g++)
+			groupStart[g + 1] += groupStart[g];
+		int[] grouped = new int[rows];
+		int[] next = groupStart.clone();
+		for (int r = 0; r < rows; r++)
+			grouped[next[group(codes[r], values)]++] = r;
+		for (int g = 0; g <= values; g++)
+			shuffle(grouped, groupStart[g], groupStart[g + 1], rand);
+
+		// Deal the grouped rows to the folds in turn
+		Arrays.fill(bounds, 0);
+		for (int p = 0; p < rows; p++)
+			bounds[p % folds + 1]++;
+		for (int i = 0; i < folds; i++)
+			bounds[i + 1] += bounds[i];
+		int[] order = new int[rows];
+		next = Arrays.copyOf(bounds, folds);
+		for (int p = 0; p < rows; p++)
+			order[next[p % folds]++] = grouped[p];
+		return order;
+	}
+
+	// Returns the group of a label code: the value itself, or values for a missing label
+	private static int group(int code, int values) {
+		return code >= 0 && code < values ? code : values;
+	}
+
+	// Puts a[from .. to) in an order drawn from rand
+	private static void shuffle(int[] a, int from, int to, Random rand) {
+		for (int i = to - from; i > 1; i--) {
+			int j = from + rand.nextInt(i);
+			int tmp = a[from + i - 1];
+			a[from + i - 1] = a[j];
+			a[j] = tmp;
+		}
+	}
+}
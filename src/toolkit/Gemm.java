@@ -0,0 +1,181 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * General matrix-matrix multiply over row-major double[] matrices,
+ * C = alpha * op(A) * op(B) + beta * C, where op transposes its argument
+ * if asked. Every matrix is given as an array, the offset of its first
+ * cell and its leading dimension (the distance between the starts of two
+ * rows), so a block of a larger array can be used in place.
+ *
+ * The product is computed in cache-sized blocks. A block of op(B) is
+ * copied (packed) into a per-thread buffer as panels of NR columns, and a
+ * block of op(A) as panels of MR rows, so the transposes only change how
+ * the blocks are packed. The inner kernel multiplies one panel of each into
+ * an MR x NR tile of C held in local variables, which loads each packed
+ * value once per tile rather than once per multiply-add. The order of the
+ * additions only depends on the sizes, so results are deterministic.
+ */
+public final class Gemm {
+	static final int MR = 4;    // rows of C per kernel tile
+	static final int NR = 4;    // columns of C per kernel tile
+	static final int MC = 64;   // rows of op(A) per packed block
+	static final int KC = 128;  // terms of each sum per packed block
+	static final int NC = 256;  // columns of op(B) per packed block
+
+	private static final ThreadLocal<double[]> PACK_A = new ThreadLocal<double[]>() {
+		protected double[] initialValue() { return new double[MC * KC]; }
+	};
+	private static final ThreadLocal<double[]> PACK_B = new ThreadLocal<double[]>() {
+		protected double[] initialValue() { return new double[KC * NC]; }
+	};
+
+	private Gemm() {}
+
+	/*
+	 * Sets C (m x n) to alpha * op(A) * op(B) + beta * C. op(A) is m x k: A
+	 * is m x k, or k x m if transA. op(B) is k x n: B is k x n, or n x k if
+	 * transB. If beta is 0, C is overwritten without being read.
+	 */
+	public static void multiply(boolean transA, boolean transB, int m, int n, int k, double alpha,
+			double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+			double beta, double[] c, int cOff, int ldc) {
+		scale(m, n, beta, c, cOff, ldc);
+		if (alpha == 0 || k == 0)
+			return;
+		double[] packA = PACK_A.get();
+		double[] packB = PACK_B.get();
+		for (int j0 = 0; j0 < n; j0 += NC) {
+			int nc = Math.min(NC, n - j0);
+			for (int p0 = 0; p0 < k; p0 += KC) {
+				int kc = Math.min(KC, k - p0);
+				packB(transB, b, bOff, ldb, p0, kc, j0, nc, packB);
+				for (int i0 = 0; i0 < m; i0 += MC) {
+					int mc = Math.min(MC, m - i0);
+					packA(transA, alpha, a, aOff, lda, i0, mc, p0, kc, packA);
+					for (int jr = 0; jr < nc; jr += NR) {
+						for (int ir = 0; ir < mc; ir += MR)
+							kernel(kc, packA, ir * kc, packB, jr * kc, c, cOff + (i0 + ir) * ldc + j0 + jr, ldc,
+									Math.min(MR, mc - ir), Math.min(NR, nc - jr));
+					}
+				}
+			}
+		}
+	}
+
+	private static void scale(int m, int n, double beta, double[] c, int cOff, int ldc) {
+		if (beta == 1)
+			return;
+		for (int i = 0; i < m; i++) {
+			int row = cOff + i * ldc;
+			for (int j = 0; j < n; j++)
+				c[row + j] = beta == 0 ? 0 : beta * c[row + j];
+		}
+	}
+
+	/*
+	 * Copies alpha * op(A)[i0 .. i0+mc)[p0 .. p0+kc) into pack as panels of
+	 * MR rows: the panel of row ir holds, for each p, the MR values of
+	 * column p, padded with zeros past the last row.
+	 */
+	private static void packA(boolean transA, double alpha, double[] a, int aOff, int lda,
+			int i0, int mc, int p0, int kc, double[] pack) {
+		for (int ir = 0; ir < mc; ir += MR) {
+			int rows = Math.min(MR, mc - ir);
+			int panel = ir * kc;
+			if (transA) {
+				for (int p = 0; p < kc; p++) {
+					int src = aOff + (p0 + p) * lda + i0 + ir;
+					for (int ii = 0; ii < rows; ii++)
+						pack[panel + p * MR + ii] = alpha * a[src + ii];
+				}
+			}
+			else {
+				for (int ii = 0; ii < rows; ii++) {
+					int src = aOff + (i0 + ir + ii) * lda + p0;
+					for (int p = 0; p < kc; p++)
+						pack[panel + p * MR + ii] = alpha * a[src + p];
+				}
+			}
+			padPanel(pack, panel, kc, rows, MR);
+		}
+	}
+
+	/*
+	 * Copies op(B)[p0 .. p0+kc)[j0 .. j0+nc) into pack as panels of NR
+	 * columns: the panel of column jr holds, for each p, the NR values of
+	 * row p, padded with zeros past the last column.
+	 */
+	private static void packB(boolean transB, double[] b, int bOff, int ldb,
+			int p0, int kc, int j0, int nc, double[] pack) {
+		for (int jr = 0; jr < nc; jr += NR) {
+			int cols = Math.min(NR, nc - jr);
+			int panel = jr * kc;
+			if (transB) {
+				for (int jj = 0; jj < cols; jj++) {
+					int src = bOff + (j0 + jr + jj) * ldb + p0;
+					for (int p = 0; p < kc; p++)
+						pack[panel + p * NR + jj] = b[src + p];
+				}
+			}
+			else {
+				for (int p = 0; p < kc; p++) {
+					int src = bOff + (p0 + p) * ldb + j0 + jr;
+					for (int jj = 0; jj < cols; jj++)
+						pack[panel + p * NR + jj] = b[src + jj];
+				}
+			}
+			padPanel(pack, panel, kc, cols, NR);
+		}
+	}
+
+	// Zeroes the entries [used, width) of each of the kc groups of a panel
+	private static void padPanel(double[] pack, int panel, int kc, int used, int width) {
+		for (int p = 0; used < width && p < kc; p++)
+			for (int x = used; x < width; x++)
+				pack[panel + p * width + x] = 0;
+	}
+
+	/*
+	 * Adds the product of the A panel at aPos and the B panel at bPos (kc
+	 * terms each) to the rows x cols tile of C at cPos.
+	 */
+	private static void kernel(int kc, double[] packA, int aPos, double[] packB, int bPos,
+			double[] c, int cPos, int ldc, int rows, int cols) {
+		double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for (int p = 0; p < kc; p++) {
+			int ap = aPos + p * MR;
+			int bp = bPos + p * NR;
+			double a0 = packA[ap], a1 = packA[ap + 1], a2 = packA[ap + 2], a3 = packA[ap + 3];
+			double b0 = packB[bp], b1 = packB[bp + 1], b2 = packB[bp + 2], b3 = packB[bp + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+		}
+		addRow(c, cPos, cols, c00, c01, c02, c03);
+		if (rows > 1)
+			addRow(c, cPos + ldc, cols, c10, c11, c12, c13);
+		if (rows > 2)
+			addRow(c, cPos + 2 * ldc, cols, c20, c21, c22, c23);
+		if (rows > 3)
+			addRow(c, cPos + 3 * ldc, cols, c30, c31, c32, c33);
+	}
+
+	// Adds the first cols of v0 .. v3 to c[pos ..]
+	private static void addRow(double[] c, int pos, int cols, double v0, double v1, double v2, double v3) {
+		c[pos] += v0;
+		if (cols > 1)
+			c[pos + 1] += v1;
+		if (cols > 2)
+			c[pos + 2] += v2;
+		if (cols > 3)
+			c[pos + 3] += v3;
+	}
+}
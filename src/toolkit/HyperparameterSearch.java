@@ -0,0 +1,205 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Scores learner configurations by cross-validation and ranks them. A
+ * search spec is a list of parameters separated by ';', optionally
+ * preceded by the kind of search:
+ *
+ *   [grid;]name=v1,v2,...;name=v1,v2,...   every combination of the values
+ *   random:N;name=...;...                  N configurations drawn at random
+ *
+ * In a random search a parameter may also be a range, lo:hi for a uniform
+ * draw, with ":log" appended for a log-uniform draw and ":int" (or
+ * ":logint") for a whole number; a list of values is drawn from uniformly.
+ * Every configuration is evaluated on the same folds, with the same learner
+ * seed per fold, so differences between configurations are not blurred by
+ * different splits. The dataset is loaded, normalized and split once, and
+ * all configuration-fold pairs run on one pool of threads.
+ */
+public class HyperparameterSearch {
+	/**
+	 * One row of the leaderboard
+	 */
+	public static class Entry {
+		public final LearnerConfig config;
+		public final Spread accuracy;
+		public final double trainSeconds; // mean per fold
+		public final double testSeconds; // mean per fold
+
+		Entry(LearnerConfig config, Spread accuracy, double trainSeconds, double testSeconds) {
+			this.config = config;
+			this.accuracy = accuracy;
+			this.trainSeconds = trainSeconds;
+			this.testSeconds = testSeconds;
+		}
+	}
+
+	private final List<LearnerConfig> m_configs;
+
+	// Builds the configurations described by spec, drawing random ones from rand
+	public HyperparameterSearch(String spec, Random rand) throws Exception {
+		m_configs = parse(spec, rand);
+	}
+
+	public List<LearnerConfig> configs() { return m_configs; }
+
+	/*
+	 * Evaluates every configuration on every fold and returns the entries
+	 * from best to worst: highest accuracy first, or lowest RMSE for a
+	 * continuous label. Ties keep the order of the spec.
+	 */
+	List<Entry> run(final Folds folds, final Folds.LearnerFactory factory, boolean continuousLabel, int threads)
+			throws Exception {
+		ArrayList<Callable<Folds.Result>> tasks = new ArrayList<Callable<Folds.Result>>();
+		for (final LearnerConfig config : m_configs) {
+			for (int i = 0; i < folds.count(); i++) {
+				final int n = i;
+				tasks.add(() -> folds.evaluate(n, factory, config, false, false, false));
+			}
+		}
+		List<Folds.Result> results = Folds.run(tasks, threads);
+
+		ArrayList<Entry> entries = new ArrayList<Entry>(m_configs.size());
+		double[] accuracies = new double[folds.count()];
+		for (int c = 0; c < m_configs.size(); c++) {
+			double trainMillis = 0;
+			double testMillis = 0;
+			for (int i = 0; i < folds.count(); i++) {
+				Folds.Result result = results.get(c * folds.count() + i);
+				accuracies[i] = result.accuracy;
+				trainMillis += result.trainMillis;
+				testMillis += result.testMillis;
+			}
+			entries.add(new Entry(m_configs.get(c), new Spread(accuracies, accuracies.length),
+					trainMillis / folds.count() / 1000.0, testMillis / folds.count() / 1000.0));
+		}
+		final int sign = continuousLabel ? 1 : -1;
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return Double.compare(sign * a.accuracy.mean, sign * b.accuracy.mean);
+			}
+		});
+		return entries;
+	}
+
+	// Prints the ranked entries as a table
+	static void printLeaderboard(List<Entry> entries, boolean continuousLabel) {
+		String measure = continuousLabel ? "RMSE" : "Accuracy";
+		System.out.println(String.format("%-5s %-24s %-10s %-10s %s", "Rank", measure + " (mean +- sd)", "Train (s)",
+				"Test (s)", "Parameters"));
+		for (int i = 0; i < entries.size(); i++) {
+			Entry e = entries.get(i);
+			System.out.println(String.format("%-5d %-24s %-10.4f %-10.4f %s", i + 1,
+					String.format("%.4f +- %.4f", e.accuracy.mean, e.accuracy.sd), e.trainSeconds, e.testSeconds,
+					e.config));
+		}
+	}
+
+	// Returns the configurations described by spec
+	static List<LearnerConfig> parse(String spec, Random rand) throws Exception {
+		String[] parts = spec.split(";");
+		int first = 0;
+		int samples = -1; // -1 for a grid
+		String kind = parts[0].trim();
+		if (kind.equals("grid"))
+			first = 1;
+		else if (kind.startsWith("random:")) {
+			samples = Integer.parseInt(kind.substring(7));
+			if (samples <= 0)
+				throw new Exception("A random search needs at least one configuration");
+			first = 1;
+		}
+
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i = first; i < parts.length; i++) {
+			String part = parts[i].trim();
+			if (part.isEmpty())
+				continue;
+			int eq = part.indexOf('=');
+			if (eq <= 0 || eq == part.length() - 1)
+				throw new Exception("Expected name=values in the search spec, found: " + part);
+			names.add(part.substring(0, eq).trim());
+			values.add(part.substring(eq + 1).trim());
+		}
+		if (names.isEmpty())
+			throw new Exception("The search spec names no parameters: " + spec);
+
+		ArrayList<LearnerConfig> configs = new ArrayList<LearnerConfig>();
+		if (samples < 0) {
+			double[][] lists = new double[names.size()][];
+			for (int p = 0; p < names.size(); p++) {
+				if (values.get(p).indexOf(':') >= 0)
+					throw new Exception("Ranges need a random search: " + names.get(p) + "=" + values.get(p));
+				lists[p] = parseList(values.get(p));
+			}
+			// Every combination, with the first parameter changing slowest
+			int[] index = new int[names.size()];
+			while (true) {
+				LearnerConfig config = new LearnerConfig();
+				for (int p = 0; p < names.size(); p++)
+					config.set(names.get(p), lists[p][index[p]]);
+				configs.add(config);
+				int p = names.size() - 1;
+				while (p >= 0 && ++index[p] == lists[p].length)
+					index[p--] = 0;
+				if (p < 0)
+					break;
+			}
+		}
+		else {
+			for (int s = 0; s < samples; s++) {
+				LearnerConfig config = new LearnerConfig();
+				for (int p = 0; p < names.size(); p++)
+					config.set(names.get(p), draw(values.get(p), rand));
+				configs.add(config);
+			}
+		}
+		return configs;
+	}
+
+	private static double[] parseList(String list) {
+		String[] items = list.split(",");
+		double[] values = new double[items.length];
+		for (int i = 0; i < items.length; i++)
+			values[i] = Double.parseDouble(items[i].trim());
+		return values;
+	}
+
+	// Draws one value for a random search from a list or a range
+	private static double draw(String values, Random rand) throws Exception {
+		if (values.indexOf(':') < 0) {
+			double[] list = parseList(values);
+			return list[rand.nextInt(list.length)];
+		}
+		String[] range = values.split(":");
+		double lo = Double.parseDouble(range[0].trim());
+		double hi = Double.parseDouble(range[1].trim());
+		String scale = range.length > 2 ? range[2].trim() : "";
+		boolean log = scale.equals("log") || scale.equals("logint");
+		boolean whole = scale.equals("int") || scale.equals("logint");
+		if (!scale.isEmpty() && !log && !whole)
+			throw new Exception("Unknown range scale: " + scale);
+		if (log && (lo <= 0 || hi <= 0))
+			throw new Exception("A log range must be positive: " + values);
+		double v;
+		if (whole && !log)
+			v = Math.floor(lo) + rand.nextInt((int)(Math.floor(hi) - Math.floor(lo)) + 1);
+		else if (log)
+			v = Math.exp(Math.log(lo) + rand.nextDouble() * (Math.log(hi) - Math.log(lo)));
+		else
+			v = lo + rand.nextDouble() * (hi - lo);
+		return whole ? Math.round(v) : v;
+	}
+}
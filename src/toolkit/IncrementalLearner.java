@@ -0,0 +1,18 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * A learner that can be trained one batch at a time. Each call to partialFit
+ * continues from the model left by the previous call (or by train, or by
+ * loadModel) instead of starting over, so data that arrives in pieces, or
+ * does not fit in memory, can be learned from as it is read. The first call
+ * on an untrained learner sizes the model from the batch, and every later
+ * batch must have the same columns and label values.
+ */
+public interface IncrementalLearner {
+	// Updates the model with one pass over the rows of the batch
+	void partialFit(Matrix features, Matrix labels) throws Exception;
+}
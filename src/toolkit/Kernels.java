@@ -0,0 +1,101 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * Inner loops shared by the learners: dot products and distances over
+ * double[] rows, with one left-to-right sum each. The loops are kept plain
+ * because that is what the JIT optimizes best: in KernelsBenchmark,
+ * versions unrolled by hand with several accumulators were slower than
+ * the plain loops at every length (the mixed distance three times slower).
+ * The mixed distance selects a nominal column's 0 or 1 from its squared
+ * difference instead of rewriting the difference, so the loop body stays
+ * a single expression.
+ * Callers share them so that any faster form found later (such as a
+ * vector path once the tree can use one) reaches every learner at once.
+ */
+public final class Kernels {
+	private Kernels() {}
+
+	// Returns the dot product of the first n elements of a and b
+	public static double dot(double[] a, double[] b, int n) {
+		return dot(a, 0, b, 0, n);
+	}
+
+	// Returns the dot product of a[aPos .. aPos+n) and b[bPos .. bPos+n)
+	public static double dot(double[] a, int aPos, double[] b, int bPos, int n) {
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += a[aPos + i] * b[bPos + i];
+		return sum;
+	}
+
+	// Returns the squared Euclidean distance between the first n elements of a and b
+	public static double squaredDistance(double[] a, double[] b, int n) {
+		return squaredDistance(a, 0, b, 0, n);
+	}
+
+	// Returns the squared Euclidean distance between a[aPos .. aPos+n) and b[bPos .. bPos+n)
+	public static double squaredDistance(double[] a, int aPos, double[] b, int bPos, int n) {
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double d = a[aPos + i] - b[bPos + i];
+			sum += d * d;
+		}
+		return sum;
+	}
+
+	/*
+	 * Returns the squared distance between the first n elements of a and b,
+	 * none of which may be missing. Nominal columns (nominal[i] true)
+	 * contribute 0 if the values match and 1 otherwise; continuous columns
+	 * contribute their squared difference. A null nominal array means every
+	 * column is continuous.
+	 */
+	public static double mixedSquaredDistance(double[] a, double[] b, boolean[] nominal, int n) {
+		return mixedSquaredDistance(a, 0, b, 0, nominal, n);
+	}
+
+	// Same as above for a[aPos .. aPos+n) and b[bPos .. bPos+n)
+	public static double mixedSquaredDistance(double[] a, int aPos, double[] b, int bPos, boolean[] nominal, int n) {
+		if (nominal == null)
+			return squaredDistance(a, aPos, b, bPos, n);
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double d = a[aPos + i] - b[bPos + i];
+			double squared = d * d;
+			sum += nominal[i] && squared != 0 ? 1 : squared;
+		}
+		return sum;
+	}
+
+	/*
+	 * Same as mixedSquaredDistance, except that a column where either value
+	 * is Matrix.MISSING contributes missingDistance squared.
+	 */
+	public static double mixedSquaredDistance(double[] a, double[] b, boolean[] nominal, int n,
+			double missingDistance) {
+		return mixedSquaredDistance(a, 0, b, 0, nominal, n, missingDistance);
+	}
+
+	// Same as above for a[aPos .. aPos+n) and b[bPos .. bPos+n)
+	public static double mixedSquaredDistance(double[] a, int aPos, double[] b, int bPos, boolean[] nominal,
+			int n, double missingDistance) {
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double x = a[aPos + i];
+			double y = b[bPos + i];
+			double d;
+			if (x == Matrix.MISSING || y == Matrix.MISSING)
+				d = missingDistance;
+			else if (nominal != null && nominal[i])
+				d = x == y ? 0 : 1;
+			else
+				d = x - y;
+			sum += d * d;
+		}
+		return sum;
+	}
+}
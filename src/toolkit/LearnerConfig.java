@@ -0,0 +1,87 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Named numeric hyperparameters of a learner. SupervisedLearner.getConfig
+ * returns the parameters a learner has with their current values, and
+ * configure sets any of them before training. Integer parameters are
+ * stored as doubles and rounded when read. Names keep the order they were
+ * set in, so printed configurations line up.
+ */
+public class LearnerConfig {
+	private final LinkedHashMap<String, Double> m_values = new LinkedHashMap<String, Double>();
+
+	public LearnerConfig set(String name, double value) {
+		m_values.put(name, value);
+		return this;
+	}
+
+	// Parses "name=value;name=value", as given to MLSystemManager -P
+	public static LearnerConfig parse(String spec) throws Exception {
+		LearnerConfig config = new LearnerConfig();
+		for (String part : spec.split(";")) {
+			part = part.trim();
+			if (part.isEmpty())
+				continue;
+			int eq = part.indexOf('=');
+			if (eq <= 0 || eq == part.length() - 1)
+				throw new Exception("Expected name=value in the parameters, found: " + part);
+			config.set(part.substring(0, eq).trim(), Double.parseDouble(part.substring(eq + 1).trim()));
+		}
+		return config;
+	}
+
+	public boolean has(String name) { return m_values.containsKey(name); }
+
+	public Set<String> names() { return m_values.keySet(); }
+
+	// Returns the value of name, or defaultValue if it is not set
+	public double get(String name, double defaultValue) {
+		Double value = m_values.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	// Returns the value of name rounded to an int, or defaultValue if it is not set
+	public int getInt(String name, int defaultValue) {
+		Double value = m_values.get(name);
+		return value == null ? defaultValue : (int)Math.round(value);
+	}
+
+	// Returns a configuration with the values of this one followed by those of that one
+	public LearnerConfig with(LearnerConfig that) {
+		LearnerConfig merged = new LearnerConfig();
+		merged.m_values.putAll(m_values);
+		merged.m_values.putAll(that.m_values);
+		return merged;
+	}
+
+	// Throws if any name is not one of the parameters in known
+	public void checkNames(LearnerConfig known) throws Exception {
+		for (String name : m_values.keySet()) {
+			if (!known.has(name))
+				throw new Exception("Unknown parameter " + name + "; expected one of " + known.names());
+		}
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, Double> entry : m_values.entrySet()) {
+			if (b.length() > 0)
+				b.append(", ");
+			double v = entry.getValue();
+			b.append(entry.getKey()).append('=');
+			if (v == Math.rint(v) && Math.abs(v) < 1e15)
+				b.append((long)v);
+			else
+				b.append(v);
+		}
+		return b.toString();
+	}
+}
@@ -4,7 +4,10 @@ package toolkit;
 // See http://creativecommons.org/publicdomain/zero/1.0/
 // ----------------------------------------------------------------
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import clustering.KMeansCluster;
 import neuralnet.NeuralNet;
@@ -13,6 +16,8 @@ import instancebasedlearner.InstanceBasedLearner;
 import perceptron.*;
 
 public class MLSystemManager {
+	private TrainingListener listener = TrainingListener.NONE;
+	private LearnerConfig params = new LearnerConfig(); // from -P, applied to every learner
 	
 	/**
 	 *  When you make a new learning algorithm, you should add a line for it to this method.
@@ -24,30 +29,80 @@ public class MLSystemManager {
 		else if (model.equals("neuralnet")) return new NeuralNet(rand);
 		else if (model.equals("decisiontree")) return new DecisionTree();
 		else if (model.equals("knn")) return new InstanceBasedLearner();
-		else if (model.equals("clustering")) return new KMeansCluster(k);
+		else if (model.equals("clustering")) return new KMeansCluster(k, rand);
 		else throw new Exception("Unrecognized model: " + model);
 	}
 
+	// Returns a learner from getLearner with the -P parameters applied
+	private SupervisedLearner createLearner(String model, Random rand, int k) throws Exception
+	{
+		SupervisedLearner learner = getLearner(model, rand, k);
+		if (!params.names().isEmpty())
+		{
+			params.checkNames(learner.getConfig());
+			learner.configure(params);
+		}
+		return learner;
+	}
+
+	/*
+	 * Returns the listener for a -G argument: "none", "console" (every 10th
+	 * epoch), "console:N" (every Nth epoch), or a file name ending in .csv or
+	 * .json for a FileTrainingListener.
+	 */
+	public TrainingListener getListener(String spec) throws Exception
+	{
+		if (spec.equals("none")) return TrainingListener.NONE;
+		else if (spec.equals("console")) return new ConsoleTrainingListener(10);
+		else if (spec.startsWith("console:")) return new ConsoleTrainingListener(Integer.parseInt(spec.substring(8)));
+		else if (spec.endsWith(".csv") || spec.endsWith(".json")) return new FileTrainingListener(spec);
+		else throw new Exception("Unrecognized training log: " + spec);
+	}
+
+	// Releases the training listener, completing its log file
+	public void close() throws Exception
+	{
+		listener.close();
+	}
+
 	public void run(String[] args) throws Exception {
 
 		//args = new String[]{"-L", "baseline", "-A", "data/iris.arff", "-E", "cross", "10", "-N"};
 
-		//Random rand = new Random(1234); // Use a seed for deterministic results (makes debugging easier)
-		Random rand = new Random(); // No seed for non-deterministic results
-
 		//Parse the command line arguments
 		ArgParser parser = new ArgParser(args);
+
+		// Use -S for deterministic results (makes debugging easier). Without it
+		// a seed is drawn and printed, so a run can still be repeated.
+		long seed = parser.getSeed() != null ? parser.getSeed() : new Random().nextLong();
+		Random rand = new Random(seed);
+		int threads = parser.getThreads();
+		if (parser.getSearch() != null && !"cross".equals(parser.getEvaluation()))
+			throw new Exception("A hyperparameter search (-H) needs cross-validation (-E cross)");
 		String fileName = parser.getARFF(); //File specified by the user
 		String learnerName = parser.getLearner(); //Learning algorithm specified by the user
 		String evalMethod = parser.getEvaluation(); //Evaluation method specified by the user
 		String evalParameter = parser.getEvalParameter(); //Evaluation parameters specified by the user
 		boolean printConfusionMatrix = parser.getVerbose();
 		boolean normalize = parser.getNormalize();
+		String compact = parser.getCompact();
+		String saveFile = parser.getSaveFile();
+		String modelFile = parser.getModelFile();
 
 		int k = parser.getK();
 		
 		// Load the model
-		SupervisedLearner learner = getLearner(learnerName, rand, k);
+		if (parser.getParams() != null)
+			params = LearnerConfig.parse(parser.getParams());
+		SupervisedLearner learner = createLearner(learnerName, rand, k);
+		listener = getListener(parser.getTrainingLog());
+		learner.setTrainingListener(listener);
+
+		if (evalMethod != null && evalMethod.equals("stream"))
+		{
+			runStream(learner, learnerName, fileName, Integer.parseInt(evalParameter), printConfusionMatrix, saveFile);
+			return;
+		}
 
 		// Load the ARFF file
 		Matrix data = new Matrix();
@@ -57,17 +112,42 @@ public class MLSystemManager {
 			System.out.println("Using normalized data\n");
 			data.normalize();
 		}
+		if (compact != null)
+			data.compact(compact.equals("float"));
 
 		// Print some stats
 		System.out.println();
 		System.out.println("Dataset name: " + fileName);
 		System.out.println("Number of instances: " + data.rows());
 		System.out.println("Number of attributes: " + data.cols());
+		System.out.println("Load throughput: " + data.loadStats());
+		System.out.println("Storage size (bytes): " + data.storageBytes());
+		System.out.println("Seed: " + seed);
 		System.out.println("Learning algorithm: " + learnerName);
-		System.out.println("Evaluation method: " + evalMethod);
+		System.out.println("Evaluation method: " + (modelFile != null ? "saved model " + modelFile : evalMethod));
 		System.out.println();
 
-		if (evalMethod.equals("training"))
+		if (modelFile != null)
+		{
+			// Skip training and score the saved model on the whole dataset
+			double startTime = System.currentTimeMillis();
+			learner.loadModel(modelFile);
+			double elapsedTime = System.currentTimeMillis() - startTime;
+			System.out.println("Time to load model (in seconds): " + elapsedTime / 1000.0);
+			Matrix features = new Matrix(data, 0, 0, data.rows(), data.cols() - 1);
+			Matrix labels = new Matrix(data, 0, data.cols() - 1, data.rows(), 1);
+			Matrix confusion = new Matrix();
+			double accuracy = learner.measureAccuracy(features, labels, confusion);
+			System.out.println("Test set accuracy: " + accuracy);
+			if(printConfusionMatrix && labels.valueCount(0) > 0)
+				System.out.println("Test set metrics: " + learner.measureMetrics(features, labels));
+			if(printConfusionMatrix) {
+				System.out.println("\nConfusion matrix: (Row=target value, Col=predicted value)");
+				confusion.print();
+				System.out.println("\n");
+			}
+		}
+		else if (evalMethod.equals("training"))
 		{
 			System.out.println("Calculating accuracy on training set...");
 			Matrix features = new Matrix(data, 0, 0, data.rows(), data.cols() );//- 1); TODO
@@ -77,6 +157,8 @@ public class MLSystemManager {
 			learner.train(features, labels);
 			double elapsedTime = System.currentTimeMillis() - startTime;
 			System.out.println("Time to train (in seconds): " + elapsedTime / 1000.0);
+			if (saveFile != null)
+				learner.saveModel(saveFile);
 			if (learner instanceof KMeansCluster) {
 				return;
 			}
@@ -94,6 +176,8 @@ public class MLSystemManager {
 			testData.loadArff(evalParameter);
 			if (normalize)
 				testData.normalize(); // BUG! This may normalize differently from the training data. It should use the same ranges for normalization!
+			if (compact != null)
+				testData.compact(compact.equals("float"));
 
 			System.out.println("Calculating accuracy on separate test set...");
 			System.out.println("Test set name: " + evalParameter);
@@ -104,6 +188,8 @@ public class MLSystemManager {
 			learner.train(features, labels);
 			double elapsedTime = System.currentTimeMillis() - startTime;
 			System.out.println("Time to train (in seconds): " + elapsedTime / 1000.0);
+			if (saveFile != null)
+				learner.saveModel(saveFile);
 			double trainAccuracy = learner.measureAccuracy(features, labels, null);
 			System.out.println("Training set accuracy: " + trainAccuracy);
 			Matrix testFeatures = new Matrix(testData, 0, 0, testData.rows(), testData.cols() - 1);
@@ -117,6 +203,8 @@ public class MLSystemManager {
 				System.out.println("Time to test (in seconds): " + testTime / 1000.0);
 			}
 			System.out.println("Test set accuracy: " + testAccuracy);
+			if(printConfusionMatrix && testLabels.valueCount(0) > 0)
+				System.out.println("Test set metrics: " + learner.measureMetrics(testFeatures, testLabels));
 			if(printConfusionMatrix) {
 				System.out.println("\nConfusion matrix: (Row=target value, Col=predicted value)");
 				confusion.print();
@@ -141,6 +229,8 @@ public class MLSystemManager {
 			learner.train(trainFeatures, trainLabels);
 			double elapsedTime = System.currentTimeMillis() - startTime;
 			System.out.println("Time to train (in seconds): " + elapsedTime / 1000.0);
+			if (saveFile != null)
+				learner.saveModel(saveFile);
 			double trainAccuracy = learner.measureAccuracy(trainFeatures, trainLabels, null);
 			System.out.println("Training set accuracy: " + trainAccuracy);
 			
@@ -154,6 +244,8 @@ public class MLSystemManager {
 			Matrix confusion = new Matrix();
 			double testAccuracy = learner.measureAccuracy(testFeatures, testLabels, confusion);
 			System.out.println("Test set accuracy: " + testAccuracy);
+			if(printConfusionMatrix && testLabels.valueCount(0) > 0)
+				System.out.println("Test set metrics: " + learner.measureMetrics(testFeatures, testLabels));
 			if(printConfusionMatrix) {
 				System.out.println("\nConfusion matrix: (Row=target value, Col=predicted value)");
 				confusion.print();
@@ -167,39 +259,175 @@ public class MLSystemManager {
 			if (folds <= 0)
 				throw new Exception("Number of folds must be greater than 0");
 			System.out.println("Number of folds: " + folds);
-			int reps = 1;
+			int reps = parser.getReps();
+			if (reps <= 0)
+				throw new Exception("Number of repetitions must be greater than 0");
+			System.out.println("Number of repetitions: " + reps);
+			boolean stratify = parser.getStratify() && data.valueCount(data.cols() - 1) > 0;
+			System.out.println("Stratified: " + stratify);
+			System.out.println("Threads: " + threads);
+			if (parser.getSearch() != null)
+			{
+				search(parser.getSearch(), learnerName, k, data, folds, reps, stratify, rand, threads);
+				return;
+			}
+			List<Folds.Result> results = crossValidate(learnerName, k, data, folds, reps, stratify, printConfusionMatrix,
+					rand, threads);
 			double sumAccuracy = 0.0;
 			double sumTrainAccuracy = 0.0;
 			double elapsedTime = 0.0;
-			for(int j = 0; j < reps; j++) {
-				data.shuffle(rand);
-				for (int i = 0; i < folds; i++) {
-					int begin = i * data.rows() / folds;
-					int end = (i + 1) * data.rows() / folds;
-					Matrix trainFeatures = new Matrix(data, 0, 0, begin, data.cols() - 1);
-					Matrix trainLabels = new Matrix(data, 0, data.cols() - 1, begin, 1);
-					Matrix testFeatures = new Matrix(data, begin, 0, end - begin, data.cols() - 1);
-					Matrix testLabels = new Matrix(data, begin, data.cols() - 1, end - begin, 1);
-					trainFeatures.add(data, end, 0, data.rows() - end);
-					trainLabels.add(data, end, data.cols() - 1, data.rows() - end);
-					double startTime = System.currentTimeMillis();
-					learner.train(trainFeatures, trainLabels);
-					elapsedTime += System.currentTimeMillis() - startTime;
-					double accuracy = learner.measureAccuracy(testFeatures, testLabels, null);
-					//TODO For DT, delete later
-					double trainingAccuracy = learner.measureAccuracy(trainFeatures, trainLabels, null);
-					System.out.println("Rep=" + j + ", Fold=" + i + ", TrainAccuracy=" + trainingAccuracy);
-					//END
-					sumTrainAccuracy += trainingAccuracy;
-					sumAccuracy += accuracy;
-					System.out.println("Rep=" + j + ", Fold=" + i + ", Accuracy=" + accuracy);
+			double[] accuracies = new double[results.size()];
+			double[][] metrics = new double[3][results.size()];
+			int metricFolds = 0;
+			// Reduce in fold order, so the sums and the log do not depend on which fold finished first
+			for (Folds.Result result : results) {
+				if (result.log != null)
+					result.log.replay(listener);
+				//TODO For DT, delete later
+				System.out.println("Rep=" + result.rep + ", Fold=" + result.fold + ", TrainAccuracy=" + result.trainAccuracy);
+				//END
+				sumTrainAccuracy += result.trainAccuracy;
+				sumAccuracy += result.accuracy;
+				elapsedTime += result.trainMillis;
+				System.out.println("Rep=" + result.rep + ", Fold=" + result.fold + ", Accuracy=" + result.accuracy);
+				accuracies[result.rep * folds + result.fold] = result.accuracy;
+				if (result.metrics != null) {
+					metrics[0][metricFolds] = result.metrics.logLoss();
+					metrics[1][metricFolds] = result.metrics.brierScore();
+					metrics[2][metricFolds] = result.metrics.rocAuc();
+					metricFolds++;
 				}
 			}
 			elapsedTime /= (reps * folds);
 			System.out.println("Average time to train (in seconds): " + elapsedTime / 1000.0);
 			System.out.println("Mean accuracy=" + (sumAccuracy / (reps * folds)));
 			System.out.println("Mean Training Accuracy=" + (sumTrainAccuracy / (reps * folds)));
+			System.out.println("Accuracy: " + new Spread(accuracies, accuracies.length));
+			if (metricFolds > 0) {
+				System.out.println("Log-loss: " + new Spread(metrics[0], metricFolds));
+				System.out.println("Brier score: " + new Spread(metrics[1], metricFolds));
+				System.out.println("ROC-AUC: " + new Spread(metrics[2], metricFolds));
+			}
+		}
+	}
+
+	/*
+	 * Runs reps repetitions of folds-fold cross-validation (see Folds) with
+	 * a fresh learner from getLearner for every fold. If metrics is true and
+	 * the label is nominal, each fold also gets its test set metrics. Folds
+	 * run on at most threads threads, and the results come back in
+	 * (rep, fold) order.
+	 */
+	private List<Folds.Result> crossValidate(final String learnerName, final int k, Matrix data, int folds,
+			int reps, boolean stratify, final boolean metrics, Random rand, int threads) throws Exception
+	{
+		final Folds plan = new Folds(data, folds, reps, stratify, rand);
+		final boolean record = listener != TrainingListener.NONE;
+		ArrayList<Callable<Folds.Result>> tasks = new ArrayList<Callable<Folds.Result>>();
+		for (int i = 0; i < plan.count(); i++) {
+			final int n = i;
+			tasks.add(() -> plan.evaluate(n, r -> createLearner(learnerName, r, k), null, true, metrics, record));
+		}
+		return Folds.run(tasks, threads);
+	}
+
+	/*
+	 * Cross-validates every configuration of a hyperparameter search on the
+	 * same folds of data and prints the leaderboard.
+	 */
+	private void search(String spec, final String learnerName, final int k, Matrix data, int folds, int reps,
+			boolean stratify, Random rand, int threads) throws Exception
+	{
+		HyperparameterSearch search = new HyperparameterSearch(spec, rand);
+		// Check the names before any fold starts
+		SupervisedLearner learner = createLearner(learnerName, rand, k);
+		for (LearnerConfig config : search.configs())
+			config.checkNames(learner.getConfig());
+		System.out.println("Search: " + search.configs().size() + " configurations of " + learner.getConfig());
+		Folds plan = new Folds(data, folds, reps, stratify, rand);
+		boolean continuousLabel = data.valueCount(data.cols() - 1) == 0;
+		long startTime = System.nanoTime();
+		List<HyperparameterSearch.Entry> entries = search.run(plan, r -> createLearner(learnerName, r, k),
+				continuousLabel, threads);
+		System.out.println("Time to search (in seconds): " + (System.nanoTime() - startTime) / 1e9);
+		System.out.println();
+		HyperparameterSearch.printLeaderboard(entries, continuousLabel);
+	}
+
+	/*
+	 * Trains an IncrementalLearner on the ARFF file one batch at a time, so
+	 * only one batch is ever in memory. Each batch after the first is scored
+	 * before the learner sees it (prequential evaluation), which measures the
+	 * model on rows it has not been trained on yet.
+	 */
+	private void runStream(SupervisedLearner learner, String learnerName, String fileName, int batchSize,
+			boolean verbose, String saveFile) throws Exception
+	{
+		if (!(learner instanceof IncrementalLearner))
+			throw new Exception(learnerName + " does not support incremental training");
+		IncrementalLearner incremental = (IncrementalLearner)learner;
+		ArffBatchReader reader = new ArffBatchReader(fileName, batchSize);
+		System.out.println();
+		System.out.println("Dataset name: " + fileName);
+		System.out.println("Number of attributes: " + reader.cols());
+		System.out.println("Learning algorithm: " + learnerName);
+		System.out.println("Evaluation method: stream");
+		System.out.println("Batch size: " + batchSize);
+		System.out.println();
+
+		int batches = 0;
+		int testedRows = 0;
+		double sse = 0.0;
+		MetricsAccumulator metrics = null;
+		double elapsedTime = 0.0;
+		try {
+			Matrix batch;
+			while ((batch = reader.nextBatch()) != null)
+			{
+				Matrix features = new Matrix(batch, 0, 0, batch.rows(), batch.cols() - 1);
+				Matrix labels = new Matrix(batch, 0, batch.cols() - 1, batch.rows(), 1);
+				if (batches > 0)
+				{
+					if (labels.valueCount(0) > 0)
+					{
+						MetricsAccumulator batchMetrics = learner.measureMetrics(features, labels);
+						if (metrics == null)
+							metrics = batchMetrics;
+						else
+							metrics.merge(batchMetrics);
+					}
+					else
+					{
+						double rmse = learner.measureAccuracy(features, labels, null);
+						sse += rmse * rmse * batch.rows();
+					}
+					testedRows += batch.rows();
+				}
+				double startTime = System.currentTimeMillis();
+				incremental.partialFit(features, labels);
+				elapsedTime += System.currentTimeMillis() - startTime;
+				batches++;
+			}
+		}
+		finally {
+			reader.close();
 		}
+		System.out.println("Read throughput: " + reader.stats());
+		System.out.println("Number of batches: " + batches);
+		System.out.println("Time to train (in seconds): " + elapsedTime / 1000.0);
+		if (saveFile != null)
+			learner.saveModel(saveFile);
+		if (testedRows == 0)
+			return;
+		System.out.println("Rows scored before training on them: " + testedRows);
+		if (metrics == null)
+		{
+			System.out.println("Prequential RMSE: " + Math.sqrt(sse / testedRows));
+			return;
+		}
+		System.out.println("Prequential accuracy: " + metrics.accuracy());
+		if (verbose)
+			System.out.println("Prequential metrics: " + metrics);
 	}
 
 	/**
@@ -213,6 +441,16 @@ public class MLSystemManager {
 		String evalExtra;
 		boolean verbose;
 		boolean normalize;
+		String compact;
+		String saveFile;
+		String modelFile;
+		String trainingLog = "console";
+		Long seed;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int reps = 1;
+		boolean stratify;
+		String search;
+		String params;
 		int k;
 
 		//You can add more options for specific learning models if you wish
@@ -228,6 +466,16 @@ public class MLSystemManager {
 			 		else if (argv[i].equals("-N"))
 			 		{
 			 			normalize = true;
+			 		}
+			 		else if (argv[i].equals("-C"))
+			 		{
+			 			//expecting "nominal" or "float"
+			 			compact = argv[++i];
+			 			if (!compact.equals("nominal") && !compact.equals("float"))
+			 			{
+			 				System.out.println("Invalid compact mode: " + compact);
+			 				System.exit(0);
+			 			}
 			 		}
 						else if (argv[i].equals("-A"))
 						{
@@ -256,12 +504,61 @@ public class MLSystemManager {
 								//expecting the number of folds
 								evalExtra = argv[++i];
 							}
+							else if (argv[i].equals("stream"))
+							{
+								//expecting the number of rows per batch
+								evalExtra = argv[++i];
+							}
 							else if (!argv[i].equals("training"))
 							{
 								System.out.println("Invalid Evaluation Method: " + argv[i]);
 								System.exit(0);
 							}
 						}
+						else if (argv[i].equals("-W"))
+						{
+							//expecting the file to save the trained model to
+							saveFile = argv[++i];
+						}
+						else if (argv[i].equals("-M"))
+						{
+							//expecting a model file saved with -W
+							modelFile = argv[++i];
+						}
+						else if (argv[i].equals("-G"))
+						{
+							//expecting none, console, console:N or a .csv/.json file
+							trainingLog = argv[++i];
+						}
+						else if (argv[i].equals("-S"))
+						{
+							//expecting the seed for the random number generator
+							seed = Long.parseLong(argv[++i]);
+						}
+						else if (argv[i].equals("-R"))
+						{
+							//expecting the number of times to repeat cross-validation
+							reps = Integer.parseInt(argv[++i]);
+						}
+						else if (argv[i].equals("-F"))
+						{
+							stratify = true;
+						}
+						else if (argv[i].equals("-H"))
+						{
+							//expecting a search spec, used with -E cross
+							search = argv[++i];
+						}
+						else if (argv[i].equals("-P"))
+						{
+							//expecting learner parameters, e.g. "learningRate=0.1;batch=32"
+							params = argv[++i];
+						}
+						else if (argv[i].equals("-T"))
+						{
+							//expecting the number of folds to run at once
+							threads = Integer.parseInt(argv[++i]);
+						}
 						else if (argv[i].equals("-K"))
 						{
 							k = Integer.parseInt(argv[++i]);
@@ -278,7 +575,7 @@ public class MLSystemManager {
 					System.out.println("Usage:");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E [evaluationMethod] {[extraParamters]} [OPTIONS]\n");
 					System.out.println("OPTIONS:");
-					System.out.println("-V Print the confusion matrix and learner accuracy on individual class values\n");
+					System.out.println("-V Print the confusion matrix, learner accuracy on individual class values and test set metrics (log-loss, Brier score, ROC-AUC)\n");
 					
 					System.out.println("Possible evaluation methods are:");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E training");
@@ -288,19 +585,30 @@ public class MLSystemManager {
 					System.exit(0);
 				}
 				
-				if (arff == null || learner == null || evaluation == null)
+				if (arff == null || learner == null || (evaluation == null && modelFile == null))
 				{
 					System.out.println("Usage:");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E [evaluationMethod] {[extraParamters]} [OPTIONS]\n");
 					System.out.println("OPTIONS:");
-					System.out.println("-V Print the confusion matrix and learner accuracy on individual class values");
+					System.out.println("-V Print the confusion matrix, learner accuracy on individual class values and test set metrics (log-loss, Brier score, ROC-AUC)");
 					System.out.println("-N Use normalized data");
+					System.out.println("-C [nominal|float] Store nominal columns as byte/short codes; \"float\" also stores continuous columns as floats");
+					System.out.println("-W [modelFile] Save the trained model (training, static and random evaluation)");
+					System.out.println("-G [none|console|console:N|file.csv|file.json] Where training diagnostics go (default console, every 10th epoch)");
+					System.out.println("-S [seed] Seed the random number generator, for repeatable runs");
+					System.out.println("-R [reps] Repeat cross-validation with reps different fold assignments and report the spread of the results");
+					System.out.println("-F Stratify cross-validation folds, so each fold has the class proportions of the whole dataset");
+					System.out.println("-H [spec] With -E cross, rank learner configurations, e.g. \"learningRate=0.01,0.1;momentum=0,0.5\" or \"random:20;learningRate=0.001:0.5:log;hidden=4:64:int\"");
+					System.out.println("-P [params] Set learner parameters, e.g. \"learningRate=0.1;batch=32\" (-H searches over them)");
+					System.out.println("-T [threads] Number of cross-validation folds to run at once (default: one per processor)");
+					System.out.println("-M [modelFile] Load a model saved with -W and evaluate it on the ARFF file instead of training; -E is not needed");
 					System.out.println();
 					System.out.println("Possible evaluation methods are:");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E training");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E static [testARFF_File]");
 					System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E random [%_ForTraining]");
-				  	System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E cross [numOfFolds]\n");
+				  	System.out.println("MLSystemManager -L [learningAlgorithm] -A [ARFF_File] -E cross [numOfFolds]");
+				  	System.out.println("MLSystemManager -L [perceptron|neuralnet|clustering] -A [ARFF_File] -E stream [batchSize]   (-N and -C do not apply)\n");
 					System.exit(0);
 				}
 			}
@@ -312,12 +620,29 @@ public class MLSystemManager {
 		public String getEvalParameter() { return evalExtra; }
 		public boolean getVerbose() { return verbose; } 
 		public boolean getNormalize() { return normalize; }
+		public String getCompact() { return compact; }
+		public String getSaveFile() { return saveFile; }
+		public String getModelFile() { return modelFile; }
+		public String getTrainingLog() { return trainingLog; }
+		public Long getSeed() { return seed; }
+		public int getThreads() { return threads; }
+		public int getReps() { return reps; }
+		public boolean getStratify() { return stratify; }
+		public String getSearch() { return search; }
+		public String getParams() { return params; }
 		public int getK() {return k;}
 	}
 
 	public static void main(String[] args) throws Exception
 	{
 		MLSystemManager ml = new MLSystemManager();
-		ml.run(args);
+		try
+		{
+			ml.run(args);
+		}
+		finally
+		{
+			ml.close();
+		}
 	}
 }
@@ -0,0 +1,63 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Read-only row-major storage backed by a memory-mapped binary dataset.
+ * Nothing is copied onto the heap; the operating system pages the data in
+ * on demand and shares those pages between processes. Matrix swaps this for
+ * a DenseStorage copy the first time it is asked to modify a cell.
+ */
+class MappedStorage extends MatrixStorage {
+	private DoubleBuffer m_data;
+	private int m_rows;
+	private int m_cols;
+
+	// The cells r * cols + c are int indices, which holds because a mapped
+	// buffer has at most Integer.MAX_VALUE bytes
+	MappedStorage(DoubleBuffer data, int rows, int cols) {
+		if ((long)rows * cols > data.capacity())
+			throw new IllegalArgumentException(rows + " x " + cols + " cells do not fit in the mapped buffer");
+		m_data = data;
+		m_rows = rows;
+		m_cols = cols;
+	}
+
+	int rows() { return m_rows; }
+
+	int cols() { return m_cols; }
+
+	boolean isReadOnly() { return true; }
+
+	double get(int r, int c) { return m_data.get(r * m_cols + c); }
+
+	void set(int r, int c, double v) {
+		throw new UnsupportedOperationException("mapped storage is read-only");
+	}
+
+	void addRow(double[] row) {
+		throw new UnsupportedOperationException("mapped storage is read-only");
+	}
+
+	void swapRows(int a, int b) {
+		throw new UnsupportedOperationException("mapped storage is read-only");
+	}
+
+	void copyRow(int r, double[] dest, int destPos) {
+		DoubleBuffer src = m_data.duplicate();
+		src.position(r * m_cols);
+		src.get(dest, destPos, m_cols);
+	}
+
+	MatrixStorage copy() {
+		DenseStorage dest = new DenseStorage(m_rows, m_cols, Matrix.Layout.ROW_MAJOR);
+		DoubleBuffer src = m_data.duplicate();
+		src.position(0);
+		src.get(dest.m_buf, 0, m_rows * m_cols);
+		return dest;
+	}
+}
@@ -7,37 +7,53 @@ package toolkit;
 import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.TreeMap;
-import java.util.Map.Entry;
 import java.util.Random;
-import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.Exception;
 
 public class Matrix {
+	// How the cells are arranged in the backing buffer
+	public enum Layout { ROW_MAJOR, COLUMN_MAJOR }
+
 	// Data
-	ArrayList< double[] > m_data;
+	MatrixStorage m_data;
 
 	// Meta-data
 	ArrayList< String > m_attr_name;
 	ArrayList< TreeMap<String, Integer> > m_str_to_enum;
 	ArrayList< TreeMap<Integer, String> > m_enum_to_str;
 
-	static double MISSING = Double.MAX_VALUE; // representation of missing values in the dataset
+	// Representation of missing values in the dataset. Missing cells are
+	// stored as this value, so the storages, the ARFF and binary formats and
+	// the learners that test cells against it keep working unchanged.
+	// isMissing and hasMissing read the bitmaps of columnStats instead, which
+	// set() and the row swaps keep current, so code that uses them never has
+	// to compare a cell with the sentinel.
+	static double MISSING = Double.MAX_VALUE;
+
+	// Throughput of the last ARFF load
+	ArffParser.Stats m_loadStats;
+
+	// Cached per-column statistics. Writers update or drop only the columns
+	// they change; see set() and setColumn().
+	ColumnStats[] m_stats;
 
 	// Creates a 0x0 matrix. You should call loadARFF or setSize next.
 	public Matrix() {}
 
-	// Copies the specified portion of that matrix into this matrix
+	// Makes this matrix a view of the specified portion of that matrix. No cells
+	// are copied; either matrix takes a private copy the first time it is modified.
 	public Matrix(Matrix that, int rowStart, int colStart, int rowCount, int colCount) {
-		m_data = new ArrayList< double[] >();
-		for(int j = 0; j < rowCount; j++) {
-			double[] rowSrc = that.row(rowStart + j);
-			double[] rowDest = new double[colCount];
-			for(int i = 0; i < colCount; i++)
-				rowDest[i] = rowSrc[colStart + i];
-			m_data.add(rowDest);
-		}
+		this(that, rowRange(rowStart, rowCount), colStart, colCount);
+	}
+
+	// Makes this matrix a view of the specified rows (in the given order) and
+	// columns of that matrix. This matrix takes ownership of the rows array.
+	public Matrix(Matrix that, int[] rows, int colStart, int colCount) {
+		m_data = new ViewStorage(that.m_data, rows, colStart, colCount);
 		m_attr_name = new ArrayList<String>();
 		m_str_to_enum = new ArrayList< TreeMap<String, Integer> >();
 		m_enum_to_str = new ArrayList< TreeMap<Integer, String> >();
@@ -48,6 +64,14 @@ public class Matrix {
 		}
 	}
 
+	// Returns the row indexes start, start + 1, ..., start + count - 1
+	public static int[] rowRange(int start, int count) {
+		int[] rows = new int[count];
+		for(int i = 0; i < count; i++)
+			rows[i] = start + i;
+		return rows;
+	}
+
 	// Adds a copy of the specified portion of that matrix to this matrix
 	public void add(Matrix that, int rowStart, int colStart, int rowCount) throws Exception {
 		if(colStart + cols() > that.cols())
@@ -56,22 +80,23 @@ public class Matrix {
 			if(that.valueCount(colStart + i) != valueCount(i))
 				throw new Exception("incompatible relations");
 		}
+		writable();
+		m_stats = null; // every column gains rows
+		if(m_data instanceof DenseStorage)
+			((DenseStorage)m_data).ensureCapacity(rows() + rowCount);
+		double[] rowSrc = new double[that.cols()];
+		double[] rowDest = new double[cols()];
 		for(int j = 0; j < rowCount; j++) {
-			double[] rowSrc = that.row(rowStart + j);
-			double[] rowDest = new double[cols()];
-			for(int i = 0; i < cols(); i++)
-				rowDest[i] = rowSrc[colStart + i];
-			m_data.add(rowDest);
+			that.copyRow(rowStart + j, rowSrc);
+			System.arraycopy(rowSrc, colStart, rowDest, 0, cols());
+			m_data.addRow(rowDest);
 		}
 	}
 
 	// Resizes this matrix (and sets all attributes to be continuous)
 	public void setSize(int rows, int cols) {
-		m_data = new ArrayList< double[] >();
-		for(int j = 0; j < rows; j++) {
-			double[] row = new double[cols];
-			m_data.add(row);
-		}
+		m_data = new DenseStorage(rows, cols, Layout.ROW_MAJOR);
+		m_stats = null;
 		m_attr_name = new ArrayList<String>();
 		m_str_to_enum = new ArrayList< TreeMap<String, Integer> >();
 		m_enum_to_str = new ArrayList< TreeMap<Integer, String> >();
@@ -82,127 +107,291 @@ public class Matrix {
 		}
 	}
 
-	// Loads from an ARFF file
+	// Loads from an ARFF file, using its binary sidecar when it is up to date
 	public void loadArff(String filename) throws Exception, FileNotFoundException {
-		m_data = new ArrayList<double[]>();
+		loadArff(filename, true);
+	}
+
+	// Loads from an ARFF file. If useCache is true, an up-to-date binary sidecar
+	// is memory-mapped instead of parsing the text, and a fresh sidecar is
+	// written after the text has been parsed.
+	public void loadArff(String filename, boolean useCache) throws Exception, FileNotFoundException {
+		m_stats = null;
+		if (useCache) {
+			long startTime = System.nanoTime();
+			try {
+				if (BinaryDataset.load(filename, this)) {
+					m_loadStats = new ArffParser.Stats();
+					m_loadStats.bytes = new File(BinaryDataset.sidecarName(filename)).length();
+					m_loadStats.rows = rows();
+					m_loadStats.nanos = System.nanoTime() - startTime;
+					return;
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				// An unreadable or damaged sidecar is simply rebuilt from the text
+			}
+		}
+		m_data = null;
 		m_attr_name = new ArrayList<String>();
 		m_str_to_enum = new ArrayList< TreeMap<String, Integer> >();
 		m_enum_to_str = new ArrayList< TreeMap<Integer, String> >();
-		boolean READDATA = false;
-		Scanner s = new Scanner(new File(filename));
-		while (s.hasNext()) {
-			String line = s.nextLine().trim();
-			if (line.length() > 0 && line.charAt(0) != '%') {
-				if (!READDATA) {
-					
-					Scanner t = new Scanner(line);
-					String firstToken = t.next().toUpperCase();
-					
-					if (firstToken.equals("@RELATION")) {
-						String datasetName = t.nextLine();
-					}
-					
-					if (firstToken.equals("@ATTRIBUTE")) {
-						TreeMap<String, Integer> ste = new TreeMap<String, Integer>();
-						m_str_to_enum.add(ste);
-						TreeMap<Integer, String> ets = new TreeMap<Integer, String>();
-						m_enum_to_str.add(ets);
-
-						Scanner u = new Scanner(line);
-						if (line.indexOf("'") != -1) u.useDelimiter("'");
-						u.next();
-						String attributeName = u.next();
-						if (line.indexOf("'") != -1) attributeName = "'" + attributeName + "'";
-						m_attr_name.add(attributeName);
-
-						int vals = 0;
-						String type = u.next().trim().toUpperCase();
-						if (type.equals("REAL") || type.equals("CONTINUOUS") || type.equals("INTEGER")) {
-						}
-						else {
-							try {
-								String values = line.substring(line.indexOf("{")+1,line.indexOf("}"));
-								Scanner v = new Scanner(values);
-								v.useDelimiter(",");
-								while (v.hasNext()) {
-									String value = v.next().trim();
-									if(value.length() > 0)
-									{
-										ste.put(value, new Integer(vals));
-										ets.put(new Integer(vals), value);
-										vals++;
-									}
-								}
-							}
-							catch (Exception e) {
-								throw new Exception("Error parsing line: " + line + "\n" + e.toString());
-							}
+		ArffParser parser = ArffParser.open(filename);
+		long size = new File(filename).length();
+		try {
+			parser.readHeader(this);
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			if (size - parser.position() >= ParallelArffLoader.MIN_PARALLEL_BYTES && pool.getParallelism() > 1)
+				m_data = ParallelArffLoader.load(filename, parser, cols(), pool);
+			else
+				m_data = parser.readData(this);
+		}
+		finally {
+			parser.close();
+		}
+		m_loadStats = parser.stats();
+		m_loadStats.bytes = size;
+		m_loadStats.rows = rows();
+		if (useCache && !isSparse()) {
+			try {
+				BinaryDataset.save(filename, this);
+			}
+			catch (IOException e) {
+				// The cache is an optimization; a read-only directory is not an error
+			}
+		}
+	}
+
+	// Returns the throughput of the last loadArff call, or null
+	public ArffParser.Stats loadStats() { return m_loadStats; }
+
+	// Processes one non-empty, non-comment header line. Returns true when the
+	// line is @DATA.
+	boolean parseHeaderLine(String line) throws Exception {
+		Scanner t = new Scanner(line);
+		String firstToken = t.next().toUpperCase();
+		
+		if (firstToken.equals("@RELATION")) {
+			String datasetName = t.nextLine();
+		}
+		
+		if (firstToken.equals("@ATTRIBUTE")) {
+			TreeMap<String, Integer> ste = new TreeMap<String, Integer>();
+			m_str_to_enum.add(ste);
+			TreeMap<Integer, String> ets = new TreeMap<Integer, String>();
+			m_enum_to_str.add(ets);
+
+			Scanner u = new Scanner(line);
+			if (line.indexOf("'") != -1) u.useDelimiter("'");
+			u.next();
+			String attributeName = u.next();
+			if (line.indexOf("'") != -1) attributeName = "'" + attributeName + "'";
+			m_attr_name.add(attributeName);
+
+			int vals = 0;
+			String type = u.next().trim().toUpperCase();
+			if (type.equals("REAL") || type.equals("CONTINUOUS") || type.equals("INTEGER")) {
+			}
+			else {
+				try {
+					String values = line.substring(line.indexOf("{")+1,line.indexOf("}"));
+					Scanner v = new Scanner(values);
+					v.useDelimiter(",");
+					while (v.hasNext()) {
+						String value = v.next().trim();
+						if(value.length() > 0)
+						{
+							ste.put(value, new Integer(vals));
+							ets.put(new Integer(vals), value);
+							vals++;
 						}
 					}
-					if (firstToken.equals("@DATA")) {
-						READDATA = true;
-					}
 				}
-				else {
-					double[] newrow = new double[cols()];
-					int curPos = 0;
-
-					try {
-						Scanner t = new Scanner(line);
-						t.useDelimiter(",");
-						while (t.hasNext()) {
-							String textValue = t.next().trim();
-							//System.out.println(textValue);
-
-							if (textValue.length() > 0) {
-								double doubleValue;
-								int vals = m_enum_to_str.get(curPos).size();
-								
-								//Missing instances appear in the dataset as a double defined as MISSING
-								if (textValue.equals("?")) {
-									doubleValue = MISSING;
-								}
-								// Continuous values appear in the instance vector as they are
-								else if (vals == 0) {
-									doubleValue = Double.parseDouble(textValue);
-								}
-								// Discrete values appear as an index to the "name" 
-								// of that value in the "attributeValue" structure
-								else {
-									doubleValue = m_str_to_enum.get(curPos).get(textValue);
-									if (doubleValue == -1) {
-										throw new Exception("Error parsing the value '" + textValue + "' on line: " + line);
-									}
-								}
-								
-								newrow[curPos] = doubleValue;
-								curPos++;
-							}
-						}
-					}
-					catch(Exception e) {
-						throw new Exception("Error parsing line: " + line + "\n" + e.toString());
-					}
-					m_data.add(newrow);
+				catch (Exception e) {
+					throw new Exception("Error parsing line: " + line + "\n" + e.toString());
 				}
 			}
 		}
+		return firstToken.equals("@DATA");
 	}
 
 	// Returns the number of rows in the matrix
-	public int rows() { return m_data.size(); }
+	public int rows() { return m_data.rows(); }
 
 	// Returns the number of columns (or attributes) in the matrix
 	public int cols() { return m_attr_name.size(); }
 
-	// Returns the specified row
-	public double[] row(int r) { return m_data.get(r); }
+	// Returns a copy of the specified row. Hot loops should prefer copyRow with a reused buffer.
+	public double[] row(int r) { return copyRow(r, new double[cols()]); }
+
+	// Copies the specified row into dest and returns dest
+	public double[] copyRow(int r, double[] dest) {
+		m_data.copyRow(r, dest, 0);
+		return dest;
+	}
+
+	// Copies the specified row into dest, starting at destPos
+	public void copyRow(int r, double[] dest, int destPos) {
+		m_data.copyRow(r, dest, destPos);
+	}
+
+	// Copies the specified column into dest and returns dest. This is a
+	// contiguous block copy when the matrix is in COLUMN_MAJOR layout.
+	public double[] copyColumn(int c, double[] dest) {
+		m_data.copyColumn(c, dest, 0);
+		return dest;
+	}
+
+	// Returns a copy of the specified column
+	public double[] column(int c) { return copyColumn(c, new double[rows()]); }
+
+	// Returns true if only the non-zero cells are stored (a sparse ARFF file)
+	public boolean isSparse() { return m_data.isSparse(); }
+
+	// Copies the non-zero cells of the specified row into index and value,
+	// sorted by column, and returns how many there are. Both arrays need room
+	// for cols() entries. For a sparse matrix this costs O(non-zeros).
+	public int copySparseRow(int r, int[] index, double[] value) {
+		return m_data.copySparseRow(r, index, value);
+	}
 
 	// Returns the element at the specified row and column
-	public double get(int r, int c) { return m_data.get(r)[c]; }
+	public double get(int r, int c) { return m_data.get(r, c); }
+
+	// Returns the nominal value index at the specified row and column, or -1
+	// if the cell is missing. After compact() this reads the byte or short
+	// code directly, without going through a double.
+	public int code(int r, int c) { return m_data.code(r, c); }
+
+	// Copies the nominal value indexes of the specified column into dest
+	// (-1 for missing cells) and returns dest
+	public int[] copyCodes(int c, int[] dest) {
+		m_data.copyCodes(c, dest, 0);
+		return dest;
+	}
+
+	// Returns true if the specified cell is missing
+	public boolean isMissing(int r, int c) { return columnStats(c).isMissing(r); }
+
+	// Returns true if the specified column has at least one missing value.
+	// Loops over a column without missing values can skip the MISSING checks.
+	public boolean hasMissing(int col) { return columnStats(col).missing() > 0; }
+
+	// Returns true if any cell of the matrix is missing
+	public boolean hasMissing() {
+		for (int c = 0; c < cols(); c++) {
+			if (hasMissing(c))
+				return true;
+		}
+		return false;
+	}
+
+	// Returns the approximate number of bytes used by the cells
+	public long storageBytes() { return m_data.storageBytes(); }
+
+	/*
+	 * Re-encodes the cells column by column in the smallest type that holds
+	 * them: nominal columns become 1-byte codes (fewer than 255 values) or
+	 * 2-byte codes (fewer than 65535 values). Continuous columns stay doubles
+	 * unless floatContinuous is true, in which case they are rounded to
+	 * floats. The accessors behave as before, and writes that do not fit a
+	 * column's type widen that column to doubles. Sparse matrices are left
+	 * as they are.
+	 */
+	public void compact(boolean floatContinuous) {
+		if (isSparse() || m_data instanceof TypedColumnStorage)
+			return;
+		int[] valueCounts = new int[cols()];
+		for (int c = 0; c < valueCounts.length; c++)
+			valueCounts[c] = valueCount(c);
+		m_data = new TypedColumnStorage(m_data, valueCounts, floatContinuous);
+		m_stats = null;
+	}
+
+	// Sets the value at the specified row and column. The missing-value
+	// bitmap of the column is updated in place; its other statistics are
+	// gathered again when next asked for.
+	void set(int r, int c, double v) {
+		writable().set(r, c, v);
+		if (m_stats != null && m_stats[c] != null)
+			m_stats[c].set(r, m_data.get(r, c)); // as stored, which may be rounded
+	}
 
-	// Sets the value at the specified row and column
-	void set(int r, int c, double v) { row(r)[c] = v; }
+	// Replaces the specified column with the first rows() values of src and
+	// drops the statistics of that column only
+	void setColumn(int c, double[] src) {
+		writable().setColumn(c, src, 0);
+		if (m_stats != null)
+			m_stats[c] = null;
+	}
+
+	// Returns the storage, first replacing it with a private copy if it is
+	// read-only or shared with a view. Callers that change cells through it
+	// must update or drop the matching entries of m_stats.
+	MatrixStorage writable() {
+		if (m_data.isReadOnly() || m_data.m_shared)
+			m_data = m_data.copy();
+		return m_data;
+	}
+
+	// Returns the storage for reordering rows. A view reorders its own row
+	// index, so only the index array is touched.
+	MatrixStorage reorderable() {
+		if (m_data instanceof ViewStorage)
+			return m_data;
+		return writable();
+	}
+
+	// Tells the cached statistics that the rows are about to be reordered and
+	// returns those of the columns with missing values, whose bitmaps have to
+	// follow the rows as they are swapped
+	private ArrayList<ColumnStats> statsWithMissing() {
+		ArrayList<ColumnStats> list = new ArrayList<ColumnStats>();
+		if (m_stats != null) {
+			for (ColumnStats stats : m_stats) {
+				if (stats == null)
+					continue;
+				stats.reordering();
+				if (stats.missing() > 0)
+					list.add(stats);
+			}
+		}
+		return list;
+	}
+
+	// Swaps two rows, moving their bits in the given missing-value bitmaps
+	// along with them
+	private void swapRows(int a, int b, ArrayList<ColumnStats> withMissing) {
+		reorderable().swapRows(a, b);
+		for (int i = 0; i < withMissing.size(); i++)
+			withMissing.get(i).swapRows(a, b);
+	}
+
+	// Returns the arrangement of the cells in memory
+	public Layout layout() {
+		if(m_data instanceof DenseStorage)
+			return ((DenseStorage)m_data).m_layout;
+		if(m_data instanceof TypedColumnStorage)
+			return Layout.COLUMN_MAJOR;
+		return Layout.ROW_MAJOR;
+	}
+
+	// Rearranges the cells so that rows (ROW_MAJOR) or columns (COLUMN_MAJOR)
+	// are contiguous. Compacted matrices are already column-major.
+	public void setLayout(Layout layout) {
+		if((m_data instanceof DenseStorage || m_data instanceof TypedColumnStorage) && layout() == layout)
+			return;
+		DenseStorage src = m_data instanceof DenseStorage ? (DenseStorage)m_data : toDense(m_data);
+		m_data = src.toLayout(layout);
+	}
+
+	// Copies an arbitrary storage into a dense row-major buffer
+	static DenseStorage toDense(MatrixStorage src) {
+		DenseStorage dest = new DenseStorage(src.rows(), src.cols(), Layout.ROW_MAJOR);
+		for(int r = 0; r < src.rows(); r++)
+			src.copyRow(r, dest.m_buf, r * src.cols());
+		return dest;
+	}
 
 	// Returns the name of the specified attribute
 	String attrName(int col) { return m_attr_name.get(col); }
@@ -219,111 +408,62 @@ public class Matrix {
 
 	// Shuffles the row order
 	void shuffle(Random rand) {
+		ArrayList<ColumnStats> withMissing = statsWithMissing();
 		for(int n = rows(); n > 0; n--) {
 			int i = rand.nextInt(n);
-			double[] tmp = row(n - 1);
-			m_data.set(n - 1, row(i));
-			m_data.set(i, tmp);
+			swapRows(n - 1, i, withMissing);
 		}
 	}
 
 	// Shuffles the row order with a buddy matrix 
 	public void shuffle(Random rand, Matrix buddy) {
+		ArrayList<ColumnStats> withMissing = statsWithMissing();
+		ArrayList<ColumnStats> buddyWithMissing = buddy.statsWithMissing();
 		for (int n = rows(); n > 0; n--) {
 			int i = rand.nextInt(n);
-			double[] tmp = row(n - 1);
-			m_data.set(n - 1, row(i));
-			m_data.set(i, tmp);
-
-
-			double[] tmp1 = buddy.row(n - 1);
-			buddy.m_data.set(n - 1, buddy.row(i));
-			buddy.m_data.set(i, tmp1);
+			swapRows(n - 1, i, withMissing);
+			buddy.swapRows(n - 1, i, buddyWithMissing);
 		}
 	}
 
-	// Returns the mean of the specified column
-	double columnMean(int col) {
-		double sum = 0;
-		int count = 0;
-		for(int i = 0; i < rows(); i++) {
-			double v = get(i, col);
-			if(v != MISSING)
-			{
-				sum += v;
-				count++;
-			}
-		}
-		return sum / count;
+	// Returns the statistics of the specified column, computing them in one
+	// pass the first time they are needed after a change
+	public ColumnStats columnStats(int col) {
+		if (m_stats == null || m_stats.length != cols())
+			m_stats = new ColumnStats[cols()];
+		if (m_stats[col] == null)
+			m_stats[col] = new ColumnStats(this, col, column(col), rows());
+		return m_stats[col];
 	}
 
+	// Returns the mean of the specified column
+	double columnMean(int col) { return columnStats(col).mean(); }
+
 	// Returns the min value in the specified column
-	double columnMin(int col) {
-		double m = MISSING;
-		for(int i = 0; i < rows(); i++) {
-			double v = get(i, col);
-			if(v != MISSING)
-			{
-				if(m == MISSING || v < m)
-					m = v;
-			}
-		}
-		return m;
-	}
+	double columnMin(int col) { return columnStats(col).min(); }
 
 	// Returns the max value in the specified column
-	double columnMax(int col) {
-		double m = MISSING;
-		for(int i = 0; i < rows(); i++) {
-			double v = get(i, col);
-			if(v != MISSING)
-			{
-				if(m == MISSING || v > m)
-					m = v;
-			}
-		}
-		return m;
-	}
+	double columnMax(int col) { return columnStats(col).max(); }
 
 	// Returns the most common value in the specified column
-	public double mostCommonValue(int col) {
-		TreeMap<Double, Integer> tm = new TreeMap<Double, Integer>();
-		for(int i = 0; i < rows(); i++) {
-			double v = get(i, col);
-			if(v != MISSING)
-			{
-				Integer count = tm.get(v);
-				if(count == null)
-					tm.put(v, new Integer(1));
-				else
-					tm.put(v, new Integer(count.intValue() + 1));
-			}
-		}
-		int maxCount = 0;
-		double val = MISSING;
-		Iterator< Entry<Double, Integer> > it = tm.entrySet().iterator();
-		while(it.hasNext())
-		{
-			Entry<Double, Integer> e = it.next();
-			if(e.getValue() > maxCount)
-			{
-				maxCount = e.getValue();
-				val = e.getKey();
-			}
-		}
-		return val;
-	}
+	public double mostCommonValue(int col) { return columnStats(col).mode(); }
 
+	// Scales every continuous column to the range [0, 1], using the cached
+	// column statistics for the range
 	public void normalize() {
+		double[] values = new double[rows()];
 		for(int i = 0; i < cols(); i++) {
 			if(valueCount(i) == 0) {
-				double min = columnMin(i);
-				double max = columnMax(i);
-				for(int j = 0; j < rows(); j++) {
-					double v = get(j, i);
+				ColumnStats stats = columnStats(i);
+				double min = stats.min();
+				double max = stats.max();
+				copyColumn(i, values);
+				for(int j = 0; j < values.length; j++) {
+					double v = values[j];
 					if(v != MISSING)
-						set(j, i, (v - min) / (max - min));
+						values[j] = (v - min) / (max - min);
 				}
+				setColumn(i, values);
 			}
 		}
 	}
@@ -347,8 +487,9 @@ public class Matrix {
 			}
 		}
 		System.out.println("@DATA");
+		double[] r = new double[cols()];
 		for(int i = 0; i < rows(); i++) {
-			double[] r = row(i);
+			copyRow(i, r);
 			for(int j = 0; j < r.length; j++) {
 				if(j > 0)
 					System.out.print(", ");
@@ -361,16 +502,24 @@ public class Matrix {
 		}
 	}
 	
+	// Replaces every missing value with the most common value of its column.
+	// Columns without missing values are left untouched.
 	public void replaceUnknowns()
 	{
-		for (int i = 0; i < this.rows(); i++)
+		double[] values = new double[rows()];
+		for (int j = 0; j < this.cols(); j++)
 		{
-			for (int j = 0; j < this.cols(); j++)
+			ColumnStats stats = this.columnStats(j);
+			if (stats.missing() == 0)
+				continue;
+			double mode = stats.mode();
+			this.copyColumn(j, values);
+			for (int i = 0; i < values.length; i++)
 			{
-				double entry = this.get(i, j);
-				if (entry == MISSING)
-					this.set(i, j, this.mostCommonValue(j));
+				if (values[i] == MISSING)
+					values[i] = mode;
 			}
+			this.setColumn(j, values);
 		}
 	}
 }
@@ -0,0 +1,95 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * Backing store for the cells of a Matrix. The Matrix keeps the attribute
+ * meta-data; a storage only knows about rows, columns and primitive values.
+ */
+abstract class MatrixStorage {
+	// Set once a view refers to this storage. The owning Matrix then copies
+	// the storage before writing to it, so views never observe the change.
+	boolean m_shared;
+
+	// Returns the number of rows held by this storage
+	abstract int rows();
+
+	// Returns the number of columns held by this storage
+	abstract int cols();
+
+	// Returns the element at the specified row and column
+	abstract double get(int r, int c);
+
+	// Sets the value at the specified row and column
+	abstract void set(int r, int c, double v);
+
+	// Appends a row to the end of this storage
+	abstract void addRow(double[] row);
+
+	// Exchanges two rows
+	abstract void swapRows(int a, int b);
+
+	// Returns an independent deep copy of this storage
+	abstract MatrixStorage copy();
+
+	// Returns true if this storage must be copied before it can be modified
+	boolean isReadOnly() { return false; }
+
+	// Returns true if only the non-zero cells are stored
+	boolean isSparse() { return false; }
+
+	// Copies the non-zero cells of the specified row into index and value
+	// (sorted by column) and returns how many there are
+	int copySparseRow(int r, int[] index, double[] value) {
+		int count = 0;
+		for(int c = 0; c < cols(); c++) {
+			double v = get(r, c);
+			if(v != 0.0) {
+				index[count] = c;
+				value[count] = v;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Copies the specified row into dest, starting at destPos
+	void copyRow(int r, double[] dest, int destPos) {
+		for(int c = 0; c < cols(); c++)
+			dest[destPos + c] = get(r, c);
+	}
+
+	// Copies the specified column into dest, starting at destPos
+	void copyColumn(int c, double[] dest, int destPos) {
+		for(int r = 0; r < rows(); r++)
+			dest[destPos + r] = get(r, c);
+	}
+
+	// Returns the nominal value index at the specified row and column, or -1
+	// if the cell is missing or does not hold a value index
+	int code(int r, int c) { return toCode(get(r, c)); }
+
+	// Copies the nominal value indexes of the specified column into dest,
+	// starting at destPos, with -1 for cells that hold no value index
+	void copyCodes(int c, int[] dest, int destPos) {
+		for(int r = 0; r < rows(); r++)
+			dest[destPos + r] = code(r, c);
+	}
+
+	// Returns the approximate number of bytes used by the cells
+	long storageBytes() { return 8L * rows() * cols(); }
+
+	// Returns v as a nominal value index, or -1 if it is not one
+	static int toCode(double v) {
+		int code = (int)v;
+		return code >= 0 && code == v && v != Matrix.MISSING ? code : -1;
+	}
+
+	// Overwrites the specified column with the values in src, starting at srcPos
+	void setColumn(int c, double[] src, int srcPos) {
+		for(int r = 0; r < rows(); r++)
+			set(r, c, src[srcPos + r]);
+	}
+}
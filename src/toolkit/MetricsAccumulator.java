@@ -0,0 +1,146 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * Classification metrics gathered in one pass over the scored rows: accuracy,
+ * confusion counts, log-loss, Brier score and ROC-AUC. Each row is added as
+ * its target value and the learner's scores (see
+ * SupervisedLearner.predictScores), which are normalized to sum to 1. The
+ * predicted value is the highest score, with ties going to the lowest index.
+ * ROC-AUC is computed one class against the rest from histograms of the
+ * scores in ROC_BINS equal-width bins, so it needs constant memory. It is
+ * exact up to ties inside a bin (counted as half) and is averaged over the
+ * classes that have both positive and negative rows. Accumulators filled
+ * from different parts of a set can be merged.
+ */
+public class MetricsAccumulator {
+	static final int ROC_BINS = 1000;
+	private static final double MIN_PROBABILITY = 1e-15; // keeps log-loss finite
+
+	private final int m_classes;
+	private final int[][] m_confusion;
+	private final long[][] m_positive; // [class][bin] scores of rows of that class
+	private final long[][] m_negative; // [class][bin] scores of rows of other classes
+	private final double[] m_probabilities;
+	private int m_count;
+	private int m_correct;
+	private double m_logLoss;
+	private double m_brier;
+
+	public MetricsAccumulator(int classes) {
+		m_classes = classes;
+		m_confusion = new int[classes][classes];
+		m_positive = new long[classes][ROC_BINS];
+		m_negative = new long[classes][ROC_BINS];
+		m_probabilities = new double[classes];
+	}
+
+	// Adds one row with the specified target value and scores
+	public void add(int target, double[] scores) throws Exception {
+		if (target < 0 || target >= m_classes)
+			throw new Exception("The label is out of range");
+		double sum = 0;
+		for (int c = 0; c < m_classes; c++)
+			sum += Math.max(0, scores[c]);
+		int predicted = 0;
+		for (int c = 0; c < m_classes; c++) {
+			m_probabilities[c] = sum > 0 ? Math.max(0, scores[c]) / sum : 1.0 / m_classes;
+			if (m_probabilities[c] > m_probabilities[predicted])
+				predicted = c;
+		}
+
+		m_count++;
+		m_confusion[target][predicted]++;
+		if (predicted == target)
+			m_correct++;
+		m_logLoss -= Math.log(Math.max(m_probabilities[target], MIN_PROBABILITY));
+		for (int c = 0; c < m_classes; c++) {
+			double p = m_probabilities[c];
+			double d = p - (c == target ? 1 : 0);
+			m_brier += d * d;
+			int bin = Math.min(ROC_BINS - 1, (int)(p * ROC_BINS));
+			if (c == target)
+				m_positive[c][bin]++;
+			else
+				m_negative[c][bin]++;
+		}
+	}
+
+	// Adds the rows counted by that accumulator
+	public void merge(MetricsAccumulator that) {
+		m_count += that.m_count;
+		m_correct += that.m_correct;
+		m_logLoss += that.m_logLoss;
+		m_brier += that.m_brier;
+		for (int t = 0; t < m_classes; t++) {
+			for (int p = 0; p < m_classes; p++)
+				m_confusion[t][p] += that.m_confusion[t][p];
+			for (int b = 0; b < ROC_BINS; b++) {
+				m_positive[t][b] += that.m_positive[t][b];
+				m_negative[t][b] += that.m_negative[t][b];
+			}
+		}
+	}
+
+	// Returns the number of rows added
+	public int count() { return m_count; }
+
+	// Returns the fraction of rows whose highest score is the target
+	public double accuracy() { return (double)m_correct / m_count; }
+
+	// Returns the confusion counts, indexed [target][predicted]. Callers must not modify it.
+	public int[][] confusion() { return m_confusion; }
+
+	// Returns the mean negative log of the probability given to the target
+	public double logLoss() { return m_logLoss / m_count; }
+
+	// Returns the mean over rows of the squared distance between the
+	// probabilities and the one-hot target
+	public double brierScore() { return m_brier / m_count; }
+
+	// Returns the one-vs-rest ROC-AUC averaged over the classes, or NaN if no
+	// class has both positive and negative rows
+	public double rocAuc() {
+		double total = 0;
+		int classes = 0;
+		for (int c = 0; c < m_classes; c++) {
+			long positives = 0;
+			long negatives = 0;
+			for (int b = 0; b < ROC_BINS; b++) {
+				positives += m_positive[c][b];
+				negatives += m_negative[c][b];
+			}
+			if (positives == 0 || negatives == 0)
+				continue;
+			// Count the pairs where the positive row scores higher
+			double pairs = 0;
+			long negativesBelow = 0;
+			for (int b = 0; b < ROC_BINS; b++) {
+				pairs += m_positive[c][b] * (negativesBelow + 0.5 * m_negative[c][b]);
+				negativesBelow += m_negative[c][b];
+			}
+			total += pairs / ((double)positives * negatives);
+			classes++;
+		}
+		return classes == 0 ? Double.NaN : total / classes;
+	}
+
+	// Copies the confusion counts into a matrix whose attributes are named after the label values
+	public void fillConfusion(Matrix confusion, Matrix labels) {
+		confusion.setSize(m_classes, m_classes);
+		for (int i = 0; i < m_classes; i++)
+			confusion.setAttrName(i, labels.attrValue(0, i));
+		for (int t = 0; t < m_classes; t++) {
+			for (int p = 0; p < m_classes; p++)
+				confusion.set(t, p, m_confusion[t][p]);
+		}
+	}
+
+	public String toString() {
+		return "accuracy=" + accuracy() + ", log-loss=" + logLoss() + ", Brier=" + brierScore()
+				+ ", ROC-AUC=" + rocAuc();
+	}
+}
@@ -0,0 +1,176 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary model files for trained learners. A file starts with a magic
+ * number, the format version and the class name of the learner, followed by
+ * whatever the learner's writeModel method stores. Learners write their
+ * state with the primitive array helpers below, which convert whole arrays
+ * through a byte buffer instead of one value at a time. No Java
+ * serialization is involved, so a file only depends on the fields each
+ * learner chooses to write. Files are written to a temporary name and
+ * renamed, so a crash never leaves a half-written model behind.
+ */
+public final class ModelIO {
+	static final int MAGIC = 0x4d4c4d44; // "MLMD"
+	static final int VERSION = 1;
+	private static final int CHUNK_BYTES = 1 << 16;
+
+	private ModelIO() {}
+
+	// Writes the trained state of learner to filename
+	static void save(SupervisedLearner learner, String filename) throws Exception {
+		File file = new File(filename);
+		File temp = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), CHUNK_BYTES));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(learner.getClass().getName());
+			learner.writeModel(out);
+		}
+		finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + filename);
+		if (!temp.renameTo(file))
+			throw new IOException("Could not rename " + temp + " to " + filename);
+	}
+
+	// Replaces the state of learner with the model stored in filename
+	static void load(SupervisedLearner learner, String filename) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), CHUNK_BYTES));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new Exception(filename + " is not a model file");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new Exception(filename + " has model format version " + version + ", expected " + VERSION);
+			String className = in.readUTF();
+			if (!className.equals(learner.getClass().getName()))
+				throw new Exception(filename + " holds a " + className + ", not a " + learner.getClass().getName());
+			learner.readModel(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// Returns the size of the conversion buffer for an array of length elements of the specified size
+	private static int bufferBytes(int length, int size) {
+		return (int)Math.max(size, Math.min(CHUNK_BYTES, (long)length * size));
+	}
+
+	// Writes the length of values followed by its elements
+	public static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		ByteBuffer buf = ByteBuffer.allocate(bufferBytes(values.length, 8));
+		for (int pos = 0; pos < values.length; ) {
+			int count = Math.min(values.length - pos, buf.capacity() / 8);
+			buf.clear();
+			buf.asDoubleBuffer().put(values, pos, count);
+			out.write(buf.array(), 0, count * 8);
+			pos += count;
+		}
+	}
+
+	// Reads an array written by writeDoubles
+	public static double[] readDoubles(DataInputStream in) throws IOException {
+		double[] values = new double[in.readInt()];
+		byte[] bytes = new byte[bufferBytes(values.length, 8)];
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		for (int pos = 0; pos < values.length; ) {
+			int count = Math.min(values.length - pos, bytes.length / 8);
+			in.readFully(bytes, 0, count * 8);
+			buf.clear();
+			buf.asDoubleBuffer().get(values, pos, count);
+			pos += count;
+		}
+		return values;
+	}
+
+	// Writes the length of values followed by its elements
+	public static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		ByteBuffer buf = ByteBuffer.allocate(bufferBytes(values.length, 4));
+		for (int pos = 0; pos < values.length; ) {
+			int count = Math.min(values.length - pos, buf.capacity() / 4);
+			buf.clear();
+			buf.asIntBuffer().put(values, pos, count);
+			out.write(buf.array(), 0, count * 4);
+			pos += count;
+		}
+	}
+
+	// Reads an array written by writeInts
+	public static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		byte[] bytes = new byte[bufferBytes(values.length, 4)];
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		for (int pos = 0; pos < values.length; ) {
+			int count = Math.min(values.length - pos, bytes.length / 4);
+			in.readFully(bytes, 0, count * 4);
+			buf.clear();
+			buf.asIntBuffer().get(values, pos, count);
+			pos += count;
+		}
+		return values;
+	}
+
+	// Writes the attribute names, nominal values and cells of m
+	public static void writeMatrix(DataOutputStream out, Matrix m) throws IOException {
+		out.writeInt(m.rows());
+		out.writeInt(m.cols());
+		for (int c = 0; c < m.cols(); c++) {
+			out.writeUTF(m.attrName(c));
+			TreeMap<Integer, String> values = m.m_enum_to_str.get(c);
+			out.writeInt(values.size());
+			for (Map.Entry<Integer, String> value : values.entrySet()) {
+				out.writeInt(value.getKey());
+				out.writeUTF(value.getValue());
+			}
+		}
+		double[] row = new double[m.cols()];
+		for (int r = 0; r < m.rows(); r++)
+			writeDoubles(out, m.copyRow(r, row));
+	}
+
+	// Reads a matrix written by writeMatrix
+	public static Matrix readMatrix(DataInputStream in) throws IOException {
+		int rows = in.readInt();
+		int cols = in.readInt();
+		Matrix m = new Matrix();
+		m.setSize(0, cols);
+		for (int c = 0; c < cols; c++) {
+			m.setAttrName(c, in.readUTF());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int index = in.readInt();
+				String value = in.readUTF();
+				m.m_enum_to_str.get(c).put(index, value);
+				m.m_str_to_enum.get(c).put(value, index);
+			}
+		}
+		DenseStorage data = (DenseStorage)m.m_data;
+		data.ensureCapacity(rows);
+		for (int r = 0; r < rows; r++)
+			data.addRow(readDoubles(in));
+		return m;
+	}
+}
@@ -0,0 +1,195 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the @DATA section of a large ARFF file on several cores. The header
+ * is read sequentially by an ArffParser; the rest of the file is then cut
+ * into byte ranges that end on line boundaries. Every range is read with a
+ * positional read and tokenized by its own ArffParser into a buffer sized
+ * from the range's line count, and the buffers are concatenated in file
+ * order, so the rows come out exactly as the sequential loader produces them.
+ * Ranges that start with a sparse line are parsed into a SparseStorage, and
+ * the result is sparse if the first range is.
+ */
+class ParallelArffLoader {
+	// Files smaller than this are not worth splitting
+	static final long MIN_PARALLEL_BYTES = 4L << 20;
+	private static final long MAX_CHUNK_BYTES = 16L << 20;
+
+	/*
+	 * Loads the data section of the file that header has just read the header
+	 * of.
+	 */
+	static MatrixStorage load(String filename, ArffParser header, int cols, ForkJoinPool pool) throws Exception {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long dataStart = header.position();
+			long size = channel.size();
+			long[] bounds = chunkBounds(channel, dataStart, size, pool.getParallelism());
+
+			ArrayList<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				if (bounds[i + 1] > bounds[i])
+					tasks.add(new ChunkTask(channel, bounds[i], bounds[i + 1], header, cols));
+			}
+			for (ChunkTask task : tasks)
+				pool.execute(task);
+
+			ArrayList<MatrixStorage> chunks = new ArrayList<MatrixStorage>();
+			int rows = 0;
+			for (ChunkTask task : tasks) {
+				MatrixStorage chunk = task.join();
+				if (task.m_error != null)
+					throw new Exception("Error in the data starting at byte " + task.m_start + "\n" + task.m_error.getMessage(), task.m_error);
+				chunks.add(chunk);
+				rows += chunk.rows();
+			}
+
+			if (!chunks.isEmpty() && chunks.get(0) instanceof SparseStorage) {
+				SparseStorage sparse = new SparseStorage(cols);
+				double[] row = new double[cols];
+				for (MatrixStorage chunk : chunks) {
+					if (chunk instanceof SparseStorage)
+						sparse.addRows((SparseStorage)chunk);
+					else {
+						for (int r = 0; r < chunk.rows(); r++) {
+							chunk.copyRow(r, row, 0);
+							sparse.addRow(row);
+						}
+					}
+				}
+				return sparse;
+			}
+			DenseStorage data = new DenseStorage(rows, cols, Matrix.Layout.ROW_MAJOR);
+			int pos = 0;
+			for (MatrixStorage chunk : chunks) {
+				if (chunk instanceof DenseStorage)
+					System.arraycopy(((DenseStorage)chunk).m_buf, 0, data.m_buf, pos, chunk.rows() * cols);
+				else {
+					for (int r = 0; r < chunk.rows(); r++)
+						chunk.copyRow(r, data.m_buf, pos + r * cols);
+				}
+				pos += chunk.rows() * cols;
+			}
+			return data;
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/*
+	 * Splits [start, end) into about four ranges per worker, at most
+	 * MAX_CHUNK_BYTES each, moving every split point just past the next
+	 * newline.
+	 */
+	private static long[] chunkBounds(FileChannel channel, long start, long end, int workers) throws IOException {
+		long length = end - start;
+		int count = (int)Math.max(workers * 4L, (length + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+		count = (int)Math.max(1, Math.min(count, length / 4096 + 1));
+		long[] bounds = new long[count + 1];
+		bounds[0] = start;
+		bounds[count] = end;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		for (int i = 1; i < count; i++) {
+			long p = Math.max(bounds[i - 1], start + length * i / count);
+			bounds[i] = nextLineStart(channel, probe, p, end);
+		}
+		return bounds;
+	}
+
+	// Returns the position just after the first newline at or after p, or end
+	private static long nextLineStart(FileChannel channel, ByteBuffer probe, long p, long end) throws IOException {
+		while (p < end) {
+			probe.clear();
+			int n = channel.read(probe, p);
+			if (n <= 0)
+				return end;
+			for (int i = 0; i < n; i++) {
+				if (probe.get(i) == '\n')
+					return p + i + 1;
+			}
+			p += n;
+		}
+		return end;
+	}
+
+	/**
+	 * Reads and tokenizes the bytes [m_start, m_end) of the file.
+	 */
+	private static class ChunkTask extends RecursiveTask<MatrixStorage> {
+		private static final long serialVersionUID = 1L;
+		private final FileChannel m_channel;
+		private final long m_start;
+		private final long m_end;
+		private final ArffParser m_header;
+		private final int m_cols;
+		Exception m_error;
+
+		ChunkTask(FileChannel channel, long start, long end, ArffParser header, int cols) {
+			m_channel = channel;
+			m_start = start;
+			m_end = end;
+			m_header = header;
+			m_cols = cols;
+		}
+
+		protected MatrixStorage compute() {
+			MatrixStorage chunk = new DenseStorage(0, m_cols, Matrix.Layout.ROW_MAJOR);
+			try {
+				int length = (int)(m_end - m_start);
+				byte[] buf = new byte[length];
+				ByteBuffer wrap = ByteBuffer.wrap(buf);
+				while (wrap.hasRemaining()) {
+					int n = m_channel.read(wrap, m_start + wrap.position());
+					if (n < 0)
+						break;
+				}
+				if (startsWithSparseLine(buf, wrap.position()))
+					chunk = new SparseStorage(m_cols);
+				else {
+					int lines = 1;
+					for (int i = 0; i < length; i++) {
+						if (buf[i] == '\n')
+							lines++;
+					}
+					((DenseStorage)chunk).ensureCapacity(lines);
+				}
+				ArffParser parser = new ArffParser(buf, wrap.position(), m_header);
+				parser.readRows(chunk, m_cols, Integer.MAX_VALUE);
+			}
+			catch (Exception e) {
+				m_error = e;
+			}
+			return chunk;
+		}
+
+		// Returns true if the first data line in buf is in sparse form
+		private static boolean startsWithSparseLine(byte[] buf, int length) {
+			int p = 0;
+			while (p < length) {
+				while (p < length && (buf[p] & 0xff) <= ' ')
+					p++;
+				if (p < length && buf[p] == '%') {
+					while (p < length && buf[p] != '\n')
+						p++;
+					continue;
+				}
+				return p < length && buf[p] == '{';
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the events of one training run so they can be passed on later. When
+ * several learners train at once, each gets its own recorder and the
+ * recordings are replayed one after another, so the log reads the same
+ * whatever order the runs finished in. Message text is built when the
+ * message is recorded, since the learner may have changed by the time of
+ * the replay.
+ */
+public class RecordingTrainingListener implements TrainingListener {
+	private final ArrayList<Consumer<TrainingListener>> m_events = new ArrayList<Consumer<TrainingListener>>();
+
+	public synchronized void epochEnded(int epoch, String metric, double value) {
+		m_events.add(l -> l.epochEnded(epoch, metric, value));
+	}
+
+	public synchronized void phaseTimed(String phase, long nanos) {
+		m_events.add(l -> l.phaseTimed(phase, nanos));
+	}
+
+	public synchronized void counter(String name, long value) {
+		m_events.add(l -> l.counter(name, value));
+	}
+
+	public synchronized void message(Supplier<String> text) {
+		String s = text.get();
+		m_events.add(l -> l.message(() -> s));
+	}
+
+	// Passes the recorded events to target in the order they were received
+	public synchronized void replay(TrainingListener target) {
+		for (Consumer<TrainingListener> event : m_events)
+			event.accept(target);
+	}
+}
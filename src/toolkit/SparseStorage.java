@@ -0,0 +1,222 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Arrays;
+
+/**
+ * Compressed sparse row storage: only the non-zero cells are kept, as
+ * (column, value) pairs in two parallel arrays, sorted by column within each
+ * row. Each row records where its pairs start and how many there are, so
+ * rows can be swapped in O(1) and a row that grows is simply moved to the
+ * end of the arrays. Missing values are non-zero and are stored like any
+ * other value.
+ */
+class SparseStorage extends MatrixStorage {
+	int m_cols;
+	int m_rows;
+	int[] m_rowStart = new int[16];
+	int[] m_rowLength = new int[16];
+	int[] m_index = new int[64];
+	double[] m_value = new double[64];
+	int m_used; // number of slots of m_index and m_value in use
+
+	SparseStorage(int cols) {
+		m_cols = cols;
+	}
+
+	int rows() { return m_rows; }
+
+	int cols() { return m_cols; }
+
+	boolean isSparse() { return true; }
+
+	// Returns the number of non-zero cells
+	int nonZeros() {
+		int count = 0;
+		for (int r = 0; r < m_rows; r++)
+			count += m_rowLength[r];
+		return count;
+	}
+
+	long storageBytes() { return 12L * m_used + 8L * m_rows; }
+
+	// Returns the slot of column c in row r, or -(insertion point) - 1
+	private int find(int r, int c) {
+		int start = m_rowStart[r];
+		int pos = Arrays.binarySearch(m_index, start, start + m_rowLength[r], c);
+		return pos;
+	}
+
+	double get(int r, int c) {
+		int pos = find(r, c);
+		return pos >= 0 ? m_value[pos] : 0.0;
+	}
+
+	void set(int r, int c, double v) {
+		int pos = find(r, c);
+		if (pos >= 0) {
+			m_value[pos] = v;
+			return;
+		}
+		if (v == 0.0)
+			return;
+		// Move the row to the end of the arrays with room for one more pair
+		int insert = -pos - 1;
+		int start = m_rowStart[r];
+		int length = m_rowLength[r];
+		ensureSlots(m_used + length + 1);
+		int dest = m_used;
+		System.arraycopy(m_index, start, m_index, dest, insert - start);
+		System.arraycopy(m_value, start, m_value, dest, insert - start);
+		m_index[dest + insert - start] = c;
+		m_value[dest + insert - start] = v;
+		System.arraycopy(m_index, insert, m_index, dest + insert - start + 1, start + length - insert);
+		System.arraycopy(m_value, insert, m_value, dest + insert - start + 1, start + length - insert);
+		m_rowStart[r] = dest;
+		m_rowLength[r] = length + 1;
+		m_used += length + 1;
+	}
+
+	void addRow(double[] row) {
+		int count = 0;
+		for (int c = 0; c < m_cols; c++) {
+			if (row[c] != 0.0)
+				count++;
+		}
+		ensureRows(m_rows + 1);
+		ensureSlots(m_used + count);
+		m_rowStart[m_rows] = m_used;
+		m_rowLength[m_rows] = count;
+		for (int c = 0; c < m_cols; c++) {
+			if (row[c] != 0.0) {
+				m_index[m_used] = c;
+				m_value[m_used] = row[c];
+				m_used++;
+			}
+		}
+		m_rows++;
+	}
+
+	// Appends a row given as count (column, value) pairs sorted by column
+	void addSparseRow(int[] index, double[] value, int count) {
+		ensureRows(m_rows + 1);
+		ensureSlots(m_used + count);
+		m_rowStart[m_rows] = m_used;
+		int length = 0;
+		for (int k = 0; k < count; k++) {
+			if (value[k] != 0.0) {
+				m_index[m_used] = index[k];
+				m_value[m_used] = value[k];
+				m_used++;
+				length++;
+			}
+		}
+		m_rowLength[m_rows] = length;
+		m_rows++;
+	}
+
+	// Appends every row of that storage
+	void addRows(SparseStorage that) {
+		for (int r = 0; r < that.m_rows; r++) {
+			int start = that.m_rowStart[r];
+			ensureRows(m_rows + 1);
+			ensureSlots(m_used + that.m_rowLength[r]);
+			System.arraycopy(that.m_index, start, m_index, m_used, that.m_rowLength[r]);
+			System.arraycopy(that.m_value, start, m_value, m_used, that.m_rowLength[r]);
+			m_rowStart[m_rows] = m_used;
+			m_rowLength[m_rows] = that.m_rowLength[r];
+			m_used += that.m_rowLength[r];
+			m_rows++;
+		}
+	}
+
+	private void ensureRows(int rows) {
+		if (rows > m_rowStart.length) {
+			int capacity = Math.max(rows, m_rowStart.length + (m_rowStart.length >> 1));
+			m_rowStart = Arrays.copyOf(m_rowStart, capacity);
+			m_rowLength = Arrays.copyOf(m_rowLength, capacity);
+		}
+	}
+
+	private void ensureSlots(int slots) {
+		if (slots > m_index.length) {
+			int capacity = Math.max(slots, m_index.length + (m_index.length >> 1));
+			m_index = Arrays.copyOf(m_index, capacity);
+			m_value = Arrays.copyOf(m_value, capacity);
+		}
+	}
+
+	void swapRows(int a, int b) {
+		int tmp = m_rowStart[a];
+		m_rowStart[a] = m_rowStart[b];
+		m_rowStart[b] = tmp;
+		tmp = m_rowLength[a];
+		m_rowLength[a] = m_rowLength[b];
+		m_rowLength[b] = tmp;
+	}
+
+	void copyRow(int r, double[] dest, int destPos) {
+		Arrays.fill(dest, destPos, destPos + m_cols, 0.0);
+		int end = m_rowStart[r] + m_rowLength[r];
+		for (int p = m_rowStart[r]; p < end; p++)
+			dest[destPos + m_index[p]] = m_value[p];
+	}
+
+	int copySparseRow(int r, int[] index, double[] value) {
+		int start = m_rowStart[r];
+		int length = m_rowLength[r];
+		System.arraycopy(m_index, start, index, 0, length);
+		System.arraycopy(m_value, start, value, 0, length);
+		return length;
+	}
+
+	void copyColumn(int c, double[] dest, int destPos) {
+		for (int r = 0; r < m_rows; r++)
+			dest[destPos + r] = get(r, c);
+	}
+
+	// Rebuilds the arrays once instead of inserting cell by cell
+	void setColumn(int c, double[] src, int srcPos) {
+		SparseStorage that = new SparseStorage(m_cols);
+		that.ensureRows(m_rows);
+		that.ensureSlots(m_used + m_rows);
+		for (int r = 0; r < m_rows; r++) {
+			int start = m_rowStart[r];
+			int end = start + m_rowLength[r];
+			int p = start;
+			that.m_rowStart[r] = that.m_used;
+			while (p < end && m_index[p] < c) {
+				that.m_index[that.m_used] = m_index[p];
+				that.m_value[that.m_used++] = m_value[p++];
+			}
+			if (p < end && m_index[p] == c)
+				p++;
+			double v = src[srcPos + r];
+			if (v != 0.0) {
+				that.m_index[that.m_used] = c;
+				that.m_value[that.m_used++] = v;
+			}
+			while (p < end) {
+				that.m_index[that.m_used] = m_index[p];
+				that.m_value[that.m_used++] = m_value[p++];
+			}
+			that.m_rowLength[r] = that.m_used - that.m_rowStart[r];
+		}
+		that.m_rows = m_rows;
+		m_rowStart = that.m_rowStart;
+		m_rowLength = that.m_rowLength;
+		m_index = that.m_index;
+		m_value = that.m_value;
+		m_used = that.m_used;
+	}
+
+	// Returns a compacted copy with the rows stored in order
+	MatrixStorage copy() {
+		SparseStorage that = new SparseStorage(m_cols);
+		that.addRows(this);
+		return that;
+	}
+}
@@ -0,0 +1,67 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * The mean, sample standard deviation and 95% confidence interval of the
+ * mean of a set of estimates, such as the accuracies of cross-validation
+ * folds. The interval uses Student's t with n - 1 degrees of freedom.
+ * Folds of repeated cross-validation share training rows, so their
+ * estimates are correlated and the interval is somewhat narrower than it
+ * should be; it is best read as a guide for comparing learners on the same
+ * folds. NaN values (for example a ROC-AUC on a fold without both classes)
+ * are left out.
+ */
+public class Spread {
+	// 97.5th percentiles of Student's t for 1 to 10 degrees of freedom
+	private static final double[] STUDENT_T_975 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228 };
+
+	public final int count;
+	public final double mean;
+	public final double sd; // NaN for fewer than two values
+	public final double halfWidth; // of the confidence interval, NaN for fewer than two values
+
+	// Summarizes the first n values
+	public Spread(double[] values, int n) {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (!Double.isNaN(values[i])) {
+				sum += values[i];
+				count++;
+			}
+		}
+		this.count = count;
+		this.mean = count == 0 ? Double.NaN : sum / count;
+		double squares = 0;
+		for (int i = 0; i < n; i++) {
+			if (!Double.isNaN(values[i]))
+				squares += (values[i] - mean) * (values[i] - mean);
+		}
+		this.sd = count < 2 ? Double.NaN : Math.sqrt(squares / (count - 1));
+		this.halfWidth = count < 2 ? Double.NaN : studentT975(count - 1) * sd / Math.sqrt(count);
+	}
+
+	// Returns the 97.5th percentile of Student's t with df degrees of freedom
+	static double studentT975(int df) {
+		if (df <= STUDENT_T_975.length)
+			return STUDENT_T_975[df - 1];
+		// Cornish-Fisher expansion around the normal quantile, within 1e-3 beyond the table
+		double z = 1.959964;
+		double z3 = z * z * z;
+		double z5 = z3 * z * z;
+		double z7 = z5 * z * z;
+		return z + (z3 + z) / (4.0 * df) + (5 * z5 + 16 * z3 + 3 * z) / (96.0 * df * df)
+				+ (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384.0 * df * df * df);
+	}
+
+	public String toString() {
+		if (count == 0)
+			return "no values";
+		if (count < 2)
+			return "mean=" + mean;
+		return "mean=" + mean + ", sd=" + sd + ", 95% CI=[" + (mean - halfWidth) + ", " + (mean + halfWidth) + "]";
+	}
+}
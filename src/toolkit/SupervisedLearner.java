@@ -5,10 +5,38 @@ package toolkit;
 // ----------------------------------------------------------------
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 
 public abstract class SupervisedLearner {
+	private TrainingListener m_listener = TrainingListener.NONE;
+
+	// Sets where the learner reports its training diagnostics (TrainingListener.NONE by default)
+	public void setTrainingListener(TrainingListener listener)
+	{
+		m_listener = listener == null ? TrainingListener.NONE : listener;
+	}
+
+	public TrainingListener getTrainingListener() { return m_listener; }
+
+	// Returns the tunable parameters of the learner with their current values
+	public LearnerConfig getConfig()
+	{
+		return new LearnerConfig();
+	}
+
+	// Sets the parameters named in config, which must all be in getConfig().
+	// Learners with parameters call this first and then read their values.
+	public void configure(LearnerConfig config) throws Exception
+	{
+		config.checkNames(getConfig());
+	}
 
 	// Before you call this method, you need to divide your data
 	// into a feature matrix and a label matrix.
@@ -19,6 +47,172 @@ public abstract class SupervisedLearner {
 	// support multi-dimensional label vectors.)
 	public abstract void predict(double[] features, double[] labels) throws Exception;
 
+	/**
+	 * Writes one score per value of the nominal label into scores. Scores are
+	 * non-negative, sum to 1 and are highest for the predicted value, so a
+	 * learner that knows its class probabilities or votes can expose them
+	 * here and many metrics can be computed from a single scoring pass. For
+	 * a continuous label scores has one element, the prediction. The default
+	 * gives all the weight to the value predict returns.
+	 */
+	public void predictScores(double[] features, double[] scores) throws Exception
+	{
+		double[] prediction = new double[1];
+		predict(features, prediction);
+		if(scores.length == 1)
+		{
+			scores[0] = prediction[0];
+			return;
+		}
+		Arrays.fill(scores, 0.0);
+		int pred = (int)prediction[0];
+		if(pred >= 0 && pred < scores.length)
+			scores[pred] = 1.0;
+	}
+
+	// Saves the trained model to filename in the binary format of ModelIO
+	public void saveModel(String filename) throws Exception
+	{
+		ModelIO.save(this, filename);
+	}
+
+	// Replaces the model with one saved by saveModel from the same kind of
+	// learner. The learner can then predict without being trained.
+	public void loadModel(String filename) throws Exception
+	{
+		ModelIO.load(this, filename);
+	}
+
+	// Writes the state predict needs. Learners that can be saved override
+	// this and readModel.
+	protected void writeModel(DataOutputStream out) throws Exception
+	{
+		throw new Exception(getClass().getSimpleName() + " does not support saving models");
+	}
+
+	// Reads the state written by writeModel
+	protected void readModel(DataInputStream in) throws Exception
+	{
+		throw new Exception(getClass().getSimpleName() + " does not support loading models");
+	}
+
+	// Rows per task when a batch is split across threads
+	static final int BATCH_GRAIN = 256;
+
+	/**
+	 * Predicts the first label of the rows [from, to) of features and stores
+	 * the prediction for row r in out[r - from]. The default splits the rows
+	 * across the common fork/join pool when isPredictThreadSafe() allows it
+	 * and calls predictRows on each piece; learners override predictRows (or
+	 * this method) to amortize per-call setup over many rows.
+	 */
+	public void predictBatch(Matrix features, int from, int to, double[] out) throws Exception
+	{
+		runBatch(features, from, to, out, this::predictRows);
+	}
+
+	// Returns true if predict may be called from several threads at once.
+	// Learners that keep scratch state in fields while predicting must leave
+	// this false; their batches then run on the calling thread.
+	public boolean isPredictThreadSafe()
+	{
+		return false;
+	}
+
+	/**
+	 * Predicts the rows [from, to) one at a time into out, starting at
+	 * outPos. Called by predictBatch, possibly for several ranges at once.
+	 */
+	protected void predictRows(Matrix features, int from, int to, double[] out, int outPos) throws Exception
+	{
+		double[] row = new double[features.cols()];
+		double[] prediction = new double[1];
+		for(int r = from; r < to; r++)
+		{
+			prediction[0] = 0.0; // make sure the prediction is not biased by a previous prediction
+			predict(features.copyRow(r, row), prediction);
+			out[outPos + r - from] = prediction[0];
+		}
+	}
+
+	/**
+	 * Something that predicts a range of rows; see predictRows.
+	 */
+	protected interface RowPredictor
+	{
+		void predictRows(Matrix features, int from, int to, double[] out, int outPos) throws Exception;
+	}
+
+	/**
+	 * Runs predictor over [from, to), split into pieces of at least
+	 * BATCH_GRAIN rows on the common pool if the learner is thread-safe and
+	 * there is more than one worker, and on the calling thread otherwise.
+	 * A batch requested from a pool thread (for example by a parallel
+	 * evaluation) is already one piece of a larger job and is not split again.
+	 */
+	protected final void runBatch(Matrix features, int from, int to, double[] out, RowPredictor predictor) throws Exception
+	{
+		if(!isPredictThreadSafe() || to - from < 2 * BATCH_GRAIN || ForkJoinPool.getCommonPoolParallelism() < 2
+				|| ForkJoinTask.inForkJoinPool())
+		{
+			predictor.predictRows(features, from, to, out, 0);
+			return;
+		}
+		BatchTask task = new BatchTask(predictor, features, from, to, out, 0);
+		ForkJoinPool.commonPool().invoke(task);
+		if(task.m_error != null)
+			throw task.m_error;
+	}
+
+	/**
+	 * Halves its range until it is small enough, then predicts it.
+	 */
+	private static class BatchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final RowPredictor m_predictor;
+		private final Matrix m_features;
+		private final int m_from;
+		private final int m_to;
+		private final double[] m_out;
+		private final int m_outPos;
+		volatile Exception m_error;
+
+		BatchTask(RowPredictor predictor, Matrix features, int from, int to, double[] out, int outPos)
+		{
+			m_predictor = predictor;
+			m_features = features;
+			m_from = from;
+			m_to = to;
+			m_out = out;
+			m_outPos = outPos;
+		}
+
+		protected void compute()
+		{
+			if(m_to - m_from < 2 * BATCH_GRAIN)
+			{
+				try
+				{
+					m_predictor.predictRows(m_features, m_from, m_to, m_out, m_outPos);
+				}
+				catch(Exception e)
+				{
+					m_error = e;
+				}
+				return;
+			}
+			int mid = (m_from + m_to) >>> 1;
+			BatchTask left = new BatchTask(m_predictor, m_features, m_from, mid, m_out, m_outPos);
+			BatchTask right = new BatchTask(m_predictor, m_features, mid, m_to, m_out, m_outPos + mid - m_from);
+			invokeAll(left, right);
+			if(left.m_error != null)
+				m_error = left.m_error;
+			else if(right.m_error != null)
+				m_error = right.m_error;
+		}
+	}
+
 	// The model must be trained before you call this method. If the label is nominal,
 	// it returns the predictive accuracy. If the label is continuous, it returns
 	// the root mean squared error (RMSE). If confusion is non-NULL, and the
@@ -32,49 +226,22 @@ public abstract class SupervisedLearner {
 		if(features.rows() == 0)
 			throw(new Exception("Expected at least one row"));
 
-		int labelValues = labels.valueCount(0);
-		if(labelValues == 0) // If the label is continuous...
-		{
-			// The label is continuous, so measure root mean squared error
-			double[] pred = new double[1];
-			double sse = 0.0;
-			for(int i = 0; i < features.rows(); i++)
-			{
-				double[] feat = features.row(i);
-				double[] targ = labels.row(i);
-				pred[0] = 0.0; // make sure the prediction is not biased by a previous prediction
-				predict(feat, pred);
-				double delta = targ[0] - pred[0];
-				sse += (delta * delta);
-			}
-			return Math.sqrt(sse / features.rows());
-		}
-		else
-		{
-			// The label is nominal, so measure predictive accuracy
-			if(confusion != null)
-			{
-				confusion.setSize(labelValues, labelValues);
-				for(int i = 0; i < labelValues; i++)
-					confusion.setAttrName(i, labels.attrValue(0, i));
-			}
-			int correctCount = 0;
-			double[] prediction = new double[1];
-			for(int i = 0; i < features.rows(); i++)
-			{
-				double[] feat = features.row(i);
-				int targ = (int)labels.get(i, 0);
-				if(targ >= labelValues)
-					throw new Exception("The label is out of range");
-				predict(feat, prediction);
-				int pred = (int)prediction[0];
-				if(confusion != null)
-					confusion.set(targ, pred, confusion.get(targ, pred) + 1);
-				if(pred == targ)
-					correctCount++;
-			}
-			return (double)correctCount / features.rows();
-		}
+		return new Evaluator(this, features, labels).measure(confusion);
+	}
+
+	// Scores every row once with predictScores and returns the accuracy,
+	// confusion counts, log-loss, Brier score and ROC-AUC. The label must be
+	// nominal.
+	public MetricsAccumulator measureMetrics(Matrix features, Matrix labels) throws Exception
+	{
+		if(features.rows() != labels.rows())
+			throw(new Exception("Expected the features and labels to have the same number of rows"));
+		if(labels.cols() != 1)
+			throw(new Exception("Sorry, this method currently only supports one-dimensional labels"));
+		if(features.rows() == 0)
+			throw(new Exception("Expected at least one row"));
+
+		return new Evaluator(this, features, labels).measureMetrics();
 	}
 
 }
@@ -0,0 +1,37 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Receives the diagnostics a learner produces while it trains, in place of
+ * printing them. Learners report a convergence metric at the end of each
+ * epoch or iteration, the time spent in each phase of training, counters
+ * such as node or epoch counts, and free-form messages. Messages are passed
+ * as suppliers so their text is only built when a listener wants it. Every
+ * method does nothing by default, and NONE ignores everything, so a learner
+ * without a listener pays a virtual call per event and no I/O.
+ * Implementations must be thread-safe, since learners may train in parallel.
+ */
+public interface TrainingListener {
+	TrainingListener NONE = new TrainingListener() {};
+
+	// Reports the value of a convergence metric after the specified epoch (or iteration)
+	default void epochEnded(int epoch, String metric, double value) {}
+
+	// Reports the time spent in a phase of training
+	default void phaseTimed(String phase, long nanos) {}
+
+	// Reports the final value of a counter
+	default void counter(String name, long value) {}
+
+	// Reports a diagnostic message
+	default void message(Supplier<String> text) {}
+
+	// Releases any output the listener holds
+	default void close() throws IOException {}
+}
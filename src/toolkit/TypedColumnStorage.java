@@ -0,0 +1,311 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+import java.util.Arrays;
+
+/**
+ * Column-oriented storage where every column picks its own primitive type.
+ * Nominal columns keep their value indexes as 1-byte codes (up to 255 values)
+ * or 2-byte codes (up to 65535 values); continuous columns are doubles, or
+ * floats when that precision is acceptable. The largest code of each type
+ * (and NaN for floats) stands for a missing value. Storing a value a column
+ * cannot represent widens that column to doubles, so the storage never
+ * changes what get returns except for the float rounding that was asked for.
+ */
+class TypedColumnStorage extends MatrixStorage {
+	Column[] m_columns;
+	int m_rows;
+	int m_capacity;
+
+	/*
+	 * Encodes the cells of src. valueCounts gives the number of nominal values
+	 * of each column (0 for continuous); floatContinuous selects floats for
+	 * the continuous columns.
+	 */
+	TypedColumnStorage(MatrixStorage src, int[] valueCounts, boolean floatContinuous) {
+		m_rows = src.rows();
+		m_capacity = Math.max(1, m_rows);
+		m_columns = new Column[src.cols()];
+		double[] values = new double[m_rows];
+		for (int c = 0; c < m_columns.length; c++) {
+			m_columns[c] = Column.create(valueCounts[c], floatContinuous, m_capacity);
+			src.copyColumn(c, values, 0);
+			for (int r = 0; r < m_rows; r++) {
+				if (!m_columns[c].set(r, values[r])) {
+					m_columns[c] = m_columns[c].widen(m_capacity, r);
+					m_columns[c].set(r, values[r]);
+				}
+			}
+		}
+	}
+
+	private TypedColumnStorage(Column[] columns, int rows) {
+		m_columns = columns;
+		m_rows = rows;
+		m_capacity = Math.max(1, rows);
+	}
+
+	int rows() { return m_rows; }
+
+	int cols() { return m_columns.length; }
+
+	double get(int r, int c) { return m_columns[c].get(r); }
+
+	void set(int r, int c, double v) {
+		if (!m_columns[c].set(r, v)) {
+			m_columns[c] = m_columns[c].widen(m_capacity, m_rows);
+			m_columns[c].set(r, v);
+		}
+	}
+
+	int code(int r, int c) { return m_columns[c].code(r); }
+
+	void addRow(double[] row) {
+		if (m_rows == m_capacity) {
+			m_capacity += Math.max(16, m_capacity >> 1);
+			for (Column column : m_columns)
+				column.grow(m_capacity);
+		}
+		m_rows++;
+		for (int c = 0; c < m_columns.length; c++)
+			set(m_rows - 1, c, row[c]);
+	}
+
+	void swapRows(int a, int b) {
+		for (Column column : m_columns)
+			column.swap(a, b);
+	}
+
+	void copyColumn(int c, double[] dest, int destPos) {
+		for (int r = 0; r < m_rows; r++)
+			dest[destPos + r] = m_columns[c].get(r);
+	}
+
+	void copyCodes(int c, int[] dest, int destPos) {
+		for (int r = 0; r < m_rows; r++)
+			dest[destPos + r] = m_columns[c].code(r);
+	}
+
+	long storageBytes() {
+		long bytes = 0;
+		for (Column column : m_columns)
+			bytes += (long)column.bytesPerValue() * m_rows;
+		return bytes;
+	}
+
+	MatrixStorage copy() {
+		return select(Matrix.rowRange(0, m_rows), 0, m_columns.length);
+	}
+
+	// Returns a storage with the specified rows and columns, keeping the column types
+	TypedColumnStorage select(int[] rows, int colStart, int colCount) {
+		Column[] columns = new Column[colCount];
+		for (int c = 0; c < colCount; c++)
+			columns[c] = m_columns[colStart + c].select(rows);
+		return new TypedColumnStorage(columns, rows.length);
+	}
+
+	/**
+	 * One column of primitive values.
+	 */
+	abstract static class Column {
+		// Returns the value in row r, with MISSING for a missing value
+		abstract double get(int r);
+
+		// Stores v in row r and returns true, or returns false if v cannot be represented
+		abstract boolean set(int r, double v);
+
+		// Returns the nominal code in row r, or -1 if it holds no value index
+		int code(int r) { return toCode(get(r)); }
+
+		abstract void grow(int capacity);
+
+		abstract void swap(int a, int b);
+
+		abstract Column select(int[] rows);
+
+		abstract int bytesPerValue();
+
+		// Returns a double column holding the first rows values of this one
+		Column widen(int capacity, int rows) {
+			DoubleColumn wide = new DoubleColumn(capacity);
+			for (int r = 0; r < rows; r++)
+				wide.m_data[r] = get(r);
+			return wide;
+		}
+
+		static Column create(int valueCount, boolean floatContinuous, int capacity) {
+			if (valueCount == 0)
+				return floatContinuous ? new FloatColumn(capacity) : new DoubleColumn(capacity);
+			if (valueCount < ByteColumn.MISSING_CODE)
+				return new ByteColumn(capacity);
+			if (valueCount < ShortColumn.MISSING_CODE)
+				return new ShortColumn(capacity);
+			return new DoubleColumn(capacity);
+		}
+	}
+
+	static class ByteColumn extends Column {
+		static final int MISSING_CODE = 0xff;
+		byte[] m_data;
+
+		ByteColumn(int capacity) { m_data = new byte[capacity]; }
+
+		double get(int r) {
+			int code = m_data[r] & 0xff;
+			return code == MISSING_CODE ? Matrix.MISSING : code;
+		}
+
+		int code(int r) {
+			int code = m_data[r] & 0xff;
+			return code == MISSING_CODE ? -1 : code;
+		}
+
+		boolean set(int r, double v) {
+			if (v == Matrix.MISSING) {
+				m_data[r] = (byte)MISSING_CODE;
+				return true;
+			}
+			int code = (int)v;
+			if (code != v || code < 0 || code >= MISSING_CODE)
+				return false;
+			m_data[r] = (byte)code;
+			return true;
+		}
+
+		void grow(int capacity) { m_data = Arrays.copyOf(m_data, capacity); }
+
+		void swap(int a, int b) {
+			byte tmp = m_data[a];
+			m_data[a] = m_data[b];
+			m_data[b] = tmp;
+		}
+
+		Column select(int[] rows) {
+			ByteColumn that = new ByteColumn(Math.max(1, rows.length));
+			for (int i = 0; i < rows.length; i++)
+				that.m_data[i] = m_data[rows[i]];
+			return that;
+		}
+
+		int bytesPerValue() { return 1; }
+	}
+
+	static class ShortColumn extends Column {
+		static final int MISSING_CODE = 0xffff;
+		short[] m_data;
+
+		ShortColumn(int capacity) { m_data = new short[capacity]; }
+
+		double get(int r) {
+			int code = m_data[r] & 0xffff;
+			return code == MISSING_CODE ? Matrix.MISSING : code;
+		}
+
+		int code(int r) {
+			int code = m_data[r] & 0xffff;
+			return code == MISSING_CODE ? -1 : code;
+		}
+
+		boolean set(int r, double v) {
+			if (v == Matrix.MISSING) {
+				m_data[r] = (short)MISSING_CODE;
+				return true;
+			}
+			int code = (int)v;
+			if (code != v || code < 0 || code >= MISSING_CODE)
+				return false;
+			m_data[r] = (short)code;
+			return true;
+		}
+
+		void grow(int capacity) { m_data = Arrays.copyOf(m_data, capacity); }
+
+		void swap(int a, int b) {
+			short tmp = m_data[a];
+			m_data[a] = m_data[b];
+			m_data[b] = tmp;
+		}
+
+		Column select(int[] rows) {
+			ShortColumn that = new ShortColumn(Math.max(1, rows.length));
+			for (int i = 0; i < rows.length; i++)
+				that.m_data[i] = m_data[rows[i]];
+			return that;
+		}
+
+		int bytesPerValue() { return 2; }
+	}
+
+	static class FloatColumn extends Column {
+		float[] m_data;
+
+		FloatColumn(int capacity) { m_data = new float[capacity]; }
+
+		double get(int r) {
+			float v = m_data[r];
+			return v != v ? Matrix.MISSING : v;
+		}
+
+		boolean set(int r, double v) {
+			if (v == Matrix.MISSING) {
+				m_data[r] = Float.NaN;
+				return true;
+			}
+			if (v != v || Math.abs(v) > Float.MAX_VALUE)
+				return false;
+			m_data[r] = (float)v;
+			return true;
+		}
+
+		void grow(int capacity) { m_data = Arrays.copyOf(m_data, capacity); }
+
+		void swap(int a, int b) {
+			float tmp = m_data[a];
+			m_data[a] = m_data[b];
+			m_data[b] = tmp;
+		}
+
+		Column select(int[] rows) {
+			FloatColumn that = new FloatColumn(Math.max(1, rows.length));
+			for (int i = 0; i < rows.length; i++)
+				that.m_data[i] = m_data[rows[i]];
+			return that;
+		}
+
+		int bytesPerValue() { return 4; }
+	}
+
+	static class DoubleColumn extends Column {
+		double[] m_data;
+
+		DoubleColumn(int capacity) { m_data = new double[capacity]; }
+
+		double get(int r) { return m_data[r]; }
+
+		boolean set(int r, double v) {
+			m_data[r] = v;
+			return true;
+		}
+
+		void grow(int capacity) { m_data = Arrays.copyOf(m_data, capacity); }
+
+		void swap(int a, int b) {
+			double tmp = m_data[a];
+			m_data[a] = m_data[b];
+			m_data[b] = tmp;
+		}
+
+		Column select(int[] rows) {
+			DoubleColumn that = new DoubleColumn(Math.max(1, rows.length));
+			for (int i = 0; i < rows.length; i++)
+				that.m_data[i] = m_data[rows[i]];
+			return that;
+		}
+
+		int bytesPerValue() { return 8; }
+	}
+}
@@ -0,0 +1,144 @@
+package toolkit;
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+/**
+ * A window onto another storage: a list of parent row indexes and a range of
+ * parent columns. Creating one costs an int per row and no cell copies.
+ * Views are read-only as far as cells go (Matrix copies them on the first
+ * write), but reordering rows only permutes the view's own index array.
+ * A view is always built directly on a non-view storage, so lookups never
+ * chain through more than one level.
+ */
+class ViewStorage extends MatrixStorage {
+	MatrixStorage m_parent;
+	int[] m_rowIndex;
+	int m_colStart;
+	int m_colCount;
+
+	/*
+	 * Creates a view of the specified rows and columns of parent. The view
+	 * takes ownership of rowIndex. If parent is itself a view, the indexes
+	 * are translated into a new array so the view points at the underlying
+	 * storage.
+	 */
+	ViewStorage(MatrixStorage parent, int[] rowIndex, int colStart, int colCount) {
+		if (parent instanceof ViewStorage) {
+			ViewStorage that = (ViewStorage)parent;
+			int[] translated = new int[rowIndex.length];
+			for (int i = 0; i < rowIndex.length; i++)
+				translated[i] = that.m_rowIndex[rowIndex[i]];
+			rowIndex = translated;
+			colStart += that.m_colStart;
+			parent = that.m_parent;
+		}
+		parent.m_shared = true;
+		m_parent = parent;
+		m_rowIndex = rowIndex;
+		m_colStart = colStart;
+		m_colCount = colCount;
+	}
+
+	int rows() { return m_rowIndex.length; }
+
+	int cols() { return m_colCount; }
+
+	boolean isReadOnly() { return true; }
+
+	boolean isSparse() { return m_parent.isSparse(); }
+
+	double get(int r, int c) { return m_parent.get(m_rowIndex[r], m_colStart + c); }
+
+	int code(int r, int c) { return m_parent.code(m_rowIndex[r], m_colStart + c); }
+
+	// Only the row index belongs to the view
+	long storageBytes() { return 4L * m_rowIndex.length; }
+
+	void set(int r, int c, double v) {
+		throw new UnsupportedOperationException("views are copied before they are modified");
+	}
+
+	void addRow(double[] row) {
+		throw new UnsupportedOperationException("views are copied before they are modified");
+	}
+
+	// Swaps two entries of the row index; the parent is not touched
+	void swapRows(int a, int b) {
+		int tmp = m_rowIndex[a];
+		m_rowIndex[a] = m_rowIndex[b];
+		m_rowIndex[b] = tmp;
+	}
+
+	void copyRow(int r, double[] dest, int destPos) {
+		if (m_parent instanceof DenseStorage) {
+			DenseStorage dense = (DenseStorage)m_parent;
+			if (dense.m_layout == Matrix.Layout.ROW_MAJOR) {
+				System.arraycopy(dense.m_buf, dense.index(m_rowIndex[r], m_colStart), dest, destPos, m_colCount);
+				return;
+			}
+		}
+		for (int c = 0; c < m_colCount; c++)
+			dest[destPos + c] = m_parent.get(m_rowIndex[r], m_colStart + c);
+	}
+
+	void copyColumn(int c, double[] dest, int destPos) {
+		if (m_parent instanceof DenseStorage) {
+			DenseStorage dense = (DenseStorage)m_parent;
+			double[] buf = dense.m_buf;
+			int base = dense.index(0, m_colStart + c);
+			int step = dense.columnStep();
+			for (int r = 0; r < m_rowIndex.length; r++)
+				dest[destPos + r] = buf[base + m_rowIndex[r] * step];
+			return;
+		}
+		for (int r = 0; r < m_rowIndex.length; r++)
+			dest[destPos + r] = m_parent.get(m_rowIndex[r], m_colStart + c);
+	}
+
+	int copySparseRow(int r, int[] index, double[] value) {
+		if (!(m_parent instanceof SparseStorage))
+			return super.copySparseRow(r, index, value);
+		SparseStorage sparse = (SparseStorage)m_parent;
+		int row = m_rowIndex[r];
+		int end = sparse.m_rowStart[row] + sparse.m_rowLength[row];
+		int count = 0;
+		for (int p = sparse.m_rowStart[row]; p < end; p++) {
+			int c = sparse.m_index[p] - m_colStart;
+			if (c >= 0 && c < m_colCount) {
+				index[count] = c;
+				value[count] = sparse.m_value[p];
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Copies the selected cells into a storage of the same kind as the parent
+	MatrixStorage copy() {
+		if (m_parent instanceof SparseStorage) {
+			SparseStorage dest = new SparseStorage(m_colCount);
+			int[] index = new int[m_colCount];
+			double[] value = new double[m_colCount];
+			for (int r = 0; r < rows(); r++)
+				dest.addSparseRow(index, value, copySparseRow(r, index, value));
+			return dest;
+		}
+		if (m_parent instanceof TypedColumnStorage)
+			return ((TypedColumnStorage)m_parent).select(m_rowIndex, m_colStart, m_colCount);
+		Matrix.Layout layout = Matrix.Layout.ROW_MAJOR;
+		if (m_parent instanceof DenseStorage)
+			layout = ((DenseStorage)m_parent).m_layout;
+		DenseStorage dest = new DenseStorage(rows(), m_colCount, layout);
+		if (layout == Matrix.Layout.ROW_MAJOR) {
+			for (int r = 0; r < rows(); r++)
+				copyRow(r, dest.m_buf, r * m_colCount);
+		}
+		else {
+			for (int c = 0; c < m_colCount; c++)
+				copyColumn(c, dest.m_buf, c * rows());
+		}
+		return dest;
+	}
+}